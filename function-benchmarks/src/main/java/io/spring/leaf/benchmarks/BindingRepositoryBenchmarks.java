@@ -0,0 +1,67 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.spring.leaf.benchmarks;
+
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import io.spring.leaf.controller.Binding;
+import io.spring.leaf.controller.repository.BindingRepository;
+import io.spring.leaf.controller.repository.InMemoryBindingRepository;
+
+/**
+ * Topic lookups as performed by the topic monitor for messages delivered while a
+ * binding on the topic is inactive.
+ *
+ * @author Mark Fisher
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BindingRepositoryBenchmarks {
+
+	@Param("10000")
+	private int bindings;
+
+	private BindingRepository repository;
+
+	@Setup
+	public void setup() {
+		this.repository = new InMemoryBindingRepository();
+		for (int i = 0; i < this.bindings; i++) {
+			Binding binding = new Binding("binding-" + i, "function-" + i, "runner");
+			binding.setInput("topic-" + i);
+			binding.setOutput("topic-" + (i + 1));
+			this.repository.save(binding.getName(), binding);
+		}
+	}
+
+	@Benchmark
+	public Set<Binding> findByInput() {
+		return this.repository.findByInput("topic-" + ThreadLocalRandom.current().nextInt(this.bindings));
+	}
+}
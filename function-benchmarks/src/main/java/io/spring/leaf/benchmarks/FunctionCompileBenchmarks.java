@@ -0,0 +1,75 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.spring.leaf.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.springframework.cloud.function.compiler.FunctionCompiler;
+import org.springframework.cloud.function.compiler.proxy.ByteCodeLoadingFunction;
+import org.springframework.core.io.ByteArrayResource;
+
+import reactor.core.publisher.Flux;
+
+/**
+ * Time to compile a lambda in the registry and to load the resulting bytecode in a
+ * runner.
+ *
+ * @author Mark Fisher
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(1)
+public class FunctionCompileBenchmarks {
+
+	private static final String LAMBDA = "f->f.map(s->s.toString().toUpperCase())";
+
+	private final FunctionCompiler<Flux<?>, Flux<?>> compiler = new FunctionCompiler<>();
+
+	private byte[] bytecode;
+
+	@Setup
+	public void setup() {
+		this.bytecode = this.compiler.compile("uppercase", LAMBDA).getGeneratedClassBytes();
+	}
+
+	@Benchmark
+	public byte[] compile() {
+		return this.compiler.compile("uppercase", LAMBDA).getGeneratedClassBytes();
+	}
+
+	@Benchmark
+	public Object load() throws Exception {
+		ByteCodeLoadingFunction<Flux<String>, Flux<String>> function =
+				new ByteCodeLoadingFunction<>(new ByteArrayResource(this.bytecode));
+		function.afterPropertiesSet();
+		return function;
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.spring.leaf.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import org.springframework.cloud.stream.binding.BinderAwareChannelResolver;
+import org.springframework.integration.channel.AbstractMessageChannel;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.objenesis.ObjenesisStd;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import io.spring.leaf.controller.FunctionGateway;
+import io.spring.leaf.controller.FunctionGateway.ReplyMode;
+
+/**
+ * Request/reply correlation in {@link FunctionGateway} under contention. Requests are
+ * "published" to a loopback channel that replies immediately on the calling thread, so
+ * only the correlation table and message construction are measured.
+ *
+ * @author Mark Fisher
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GatewayBenchmarks {
+
+	private FunctionGateway gateway;
+
+	@Setup
+	public void setup() {
+		this.gateway = new FunctionGateway();
+		// the resolver's constructor needs a binding service; the stand-in never uses one
+		LoopbackResolver resolver = new ObjenesisStd().newInstance(LoopbackResolver.class);
+		resolver.channel = new LoopbackChannel(this.gateway);
+		ReflectionTestUtils.setField(this.gateway, "resolver", resolver);
+	}
+
+	@TearDown
+	public void tearDown() {
+		this.gateway.destroy();
+	}
+
+	@Benchmark
+	@Threads(8)
+	public Object requestReply() {
+		DeferredResult<String> result = this.gateway.sendRequest("words", "hello", ReplyMode.HTTP);
+		return result.getResult();
+	}
+
+	static class LoopbackResolver extends BinderAwareChannelResolver {
+
+		private MessageChannel channel;
+
+		LoopbackResolver() {
+			super(null, null, null);
+		}
+
+		@Override
+		public MessageChannel resolveDestination(String channelName) {
+			return this.channel;
+		}
+	}
+
+	static class LoopbackChannel extends AbstractMessageChannel {
+
+		private final FunctionGateway gateway;
+
+		LoopbackChannel(FunctionGateway gateway) {
+			this.gateway = gateway;
+		}
+
+		@Override
+		protected boolean doSend(Message<?> message, long timeout) {
+			String replyTo = message.getHeaders().get("gatewayReplyTo", String.class);
+			long id = Long.parseLong(replyTo.substring(replyTo.lastIndexOf('/') + 1));
+			this.gateway.handleReply(id, message.getPayload().toString());
+			return true;
+		}
+	}
+}
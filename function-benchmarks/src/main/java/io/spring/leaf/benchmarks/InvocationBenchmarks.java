@@ -0,0 +1,119 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.spring.leaf.benchmarks;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import org.springframework.integration.channel.DirectChannel;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.MessagingException;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.spring.leaf.invoker.FunctionInvokingProcessor;
+import io.spring.leaf.invoker.FunctionPipeline;
+import io.spring.leaf.invoker.InvocationCounter;
+import io.spring.leaf.invoker.PayloadCodecs;
+import io.spring.leaf.invoker.StreamingFunctionHandler;
+import reactor.core.publisher.Flux;
+
+/**
+ * Cost of pushing one message through a function, per-message and streaming. The output
+ * binding is replaced by an in-process {@link DirectChannel}.
+ *
+ * @author Mark Fisher
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class InvocationBenchmarks {
+
+	private final Function<Flux<Object>, Flux<Object>> function = f -> f.map(s -> s.toString().toUpperCase());
+
+	private final FunctionInvokingProcessor processor = new FunctionInvokingProcessor();
+
+	private final FunctionInvokingProcessor pipelineProcessor = new FunctionInvokingProcessor();
+
+	private final PayloadCodecs codecs = new PayloadCodecs(null, null);
+
+	private final Message<String> message = MessageBuilder.withPayload("hello world")
+			.setHeader("gatewayCorrelationId", 42L)
+			.build();
+
+	private StreamingFunctionHandler streamingHandler;
+
+	private Blackhole blackhole;
+
+	@Setup
+	public void setup(Blackhole blackhole) {
+		this.blackhole = blackhole;
+		ReflectionTestUtils.setField(this.processor, "targetFunction", this.function);
+		ReflectionTestUtils.setField(this.processor, "invocationCounter", new InvocationCounter());
+		ReflectionTestUtils.setField(this.processor, "codecs", this.codecs);
+		ReflectionTestUtils.setField(this.pipelineProcessor, "targetFunction",
+				FunctionPipeline.compose(Arrays.asList(this.function, this.function, this.function)));
+		ReflectionTestUtils.setField(this.pipelineProcessor, "invocationCounter", new InvocationCounter());
+		ReflectionTestUtils.setField(this.pipelineProcessor, "codecs", this.codecs);
+		DirectChannel output = new DirectChannel();
+		output.subscribe(new MessageHandler() {
+
+			@Override
+			public void handleMessage(Message<?> message) throws MessagingException {
+				InvocationBenchmarks.this.blackhole.consume(message);
+			}
+		});
+		this.streamingHandler = new StreamingFunctionHandler(this.function, output,
+				this.codecs.getDefaultCodec(), 256);
+		this.streamingHandler.start();
+	}
+
+	@TearDown
+	public void tearDown() {
+		this.streamingHandler.stop();
+	}
+
+	@Benchmark
+	public Message<?> perMessage() {
+		return this.processor.handle(this.message);
+	}
+
+	/**
+	 * Three stages fused in one runner, compared with three {@link #perMessage()} hops.
+	 */
+	@Benchmark
+	public Message<?> fusedPipeline() {
+		return this.pipelineProcessor.handle(this.message);
+	}
+
+	@Benchmark
+	public void streaming() {
+		this.streamingHandler.handleMessage(this.message);
+	}
+}
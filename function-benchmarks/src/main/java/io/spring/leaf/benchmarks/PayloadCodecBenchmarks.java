@@ -0,0 +1,73 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.spring.leaf.benchmarks;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import io.spring.leaf.invoker.PayloadCodec;
+import io.spring.leaf.invoker.PayloadCodecs;
+
+/**
+ * Cost of turning a received payload into a function input and the output back into a
+ * payload, for text and raw byte bindings.
+ *
+ * @author Mark Fisher
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PayloadCodecBenchmarks {
+
+	@Param({ "100", "65536" })
+	private int size;
+
+	private final PayloadCodecs codecs = new PayloadCodecs(null, null);
+
+	private PayloadCodec text;
+
+	private PayloadCodec bytes;
+
+	private byte[] payload;
+
+	@Setup
+	public void setup() {
+		this.text = this.codecs.forContentType(PayloadCodecs.TEXT);
+		this.bytes = this.codecs.forContentType(PayloadCodecs.BYTES);
+		this.payload = new byte[this.size];
+		Arrays.fill(this.payload, (byte) 'a');
+	}
+
+	@Benchmark
+	public Object text() {
+		return this.text.encode(this.text.decode(this.payload));
+	}
+
+	@Benchmark
+	public Object bytes() {
+		return this.bytes.encode(this.bytes.decode(this.payload));
+	}
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.spring.leaf.binder.local;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Registered as the {@code local} binder. Select it with
+ * {@code spring.cloud.stream.defaultBinder=local}. The binder is in-process only (see
+ * {@link LocalBroker}), so it is meant for tests and benchmarks; a controller using it
+ * refuses to launch runners.
+ *
+ * @author Mark Fisher
+ */
+@Configuration
+public class LocalBinderConfiguration {
+
+	@Value("${leaf.binder.local.capacity:16384}")
+	private int capacity;
+
+	@Value("${leaf.binder.local.send-timeout:10000}")
+	private long sendTimeout;
+
+	@Bean
+	public LocalMessageChannelBinder localMessageChannelBinder() {
+		return new LocalMessageChannelBinder(LocalBroker.getInstance(), this.capacity, this.sendTimeout);
+	}
+}
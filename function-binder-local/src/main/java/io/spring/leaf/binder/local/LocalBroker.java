@@ -0,0 +1,149 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.spring.leaf.binder.local;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageDeliveryException;
+
+/**
+ * In-memory topics shared by every local binder in the JVM, so producers and consumers
+ * in the same process exchange messages by reference, without serialization or a
+ * network hop. A topic fans out to one bounded queue per consumer
+ * group, and the consumers of a group compete for its messages. As with durable broker
+ * queues, the queue of a named group keeps its messages while no consumer is bound.
+ * <p>
+ * Nothing crosses a process boundary: each JVM (strictly, each class loader that loads
+ * this class) has its own broker and sees none of the messages sent in another. Use it
+ * for tests and benchmarks.
+ *
+ * @author Mark Fisher
+ */
+public class LocalBroker {
+
+	private static final LocalBroker INSTANCE = new LocalBroker();
+
+	private final ConcurrentMap<String, ConcurrentMap<String, Queue>> topics = new ConcurrentHashMap<>();
+
+	/**
+	 * @return the broker of this JVM
+	 */
+	public static LocalBroker getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Create the queue for a group on a topic unless it already exists.
+	 */
+	public Queue provision(String topic, String group, int capacity) {
+		return this.topics.computeIfAbsent(topic, t -> new ConcurrentHashMap<>())
+				.computeIfAbsent(group, g -> new Queue(topic + "." + g, capacity));
+	}
+
+	/**
+	 * @return the queue for a group on a topic, or {@code null} if it does not exist
+	 */
+	public Queue getQueue(String topic, String group) {
+		ConcurrentMap<String, Queue> groups = this.topics.get(topic);
+		return (groups != null) ? groups.get(group) : null;
+	}
+
+	public void delete(String topic, String group) {
+		ConcurrentMap<String, Queue> groups = this.topics.get(topic);
+		if (groups != null) {
+			groups.remove(group);
+		}
+	}
+
+	/**
+	 * Add the message to the queue of every group on the topic, waiting up to
+	 * {@code timeout} milliseconds for room in each.
+	 * @return the number of queues the message was added to
+	 */
+	public int publish(String topic, Message<?> message, long timeout) {
+		ConcurrentMap<String, Queue> groups = this.topics.get(topic);
+		if (groups == null) {
+			return 0;
+		}
+		int delivered = 0;
+		for (Queue queue : groups.values()) {
+			queue.put(message, timeout);
+			delivered++;
+		}
+		return delivered;
+	}
+
+	/**
+	 * The messages published to a topic for one consumer group, held in an array-backed
+	 * ring buffer.
+	 */
+	public static class Queue {
+
+		private final String name;
+
+		private final BlockingQueue<Message<?>> messages;
+
+		private final AtomicInteger consumers = new AtomicInteger();
+
+		Queue(String name, int capacity) {
+			this.name = name;
+			this.messages = new ArrayBlockingQueue<>(capacity);
+		}
+
+		public String getName() {
+			return this.name;
+		}
+
+		public int getMessageCount() {
+			return this.messages.size();
+		}
+
+		public int getConsumerCount() {
+			return this.consumers.get();
+		}
+
+		void put(Message<?> message, long timeout) {
+			try {
+				if (!this.messages.offer(message, timeout, TimeUnit.MILLISECONDS)) {
+					throw new MessageDeliveryException(message, "queue " + this.name + " is full");
+				}
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new MessageDeliveryException(message, "interrupted while publishing to " + this.name, e);
+			}
+		}
+
+		Message<?> poll(long timeout) throws InterruptedException {
+			return this.messages.poll(timeout, TimeUnit.MILLISECONDS);
+		}
+
+		void addConsumer() {
+			this.consumers.incrementAndGet();
+		}
+
+		void removeConsumer() {
+			this.consumers.decrementAndGet();
+		}
+	}
+}
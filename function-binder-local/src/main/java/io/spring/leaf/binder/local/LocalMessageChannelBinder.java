@@ -0,0 +1,193 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.spring.leaf.binder.local;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.cloud.stream.binder.Binder;
+import org.springframework.cloud.stream.binder.Binding;
+import org.springframework.cloud.stream.binder.ConsumerProperties;
+import org.springframework.cloud.stream.binder.ProducerProperties;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.MessagingException;
+import org.springframework.messaging.SubscribableChannel;
+import org.springframework.util.StringUtils;
+
+/**
+ * Binder over the in-process {@link LocalBroker}. Each consumer binding runs
+ * {@code concurrency} threads taking messages from its group's queue, and a message whose
+ * handler keeps failing is dropped after {@code maxAttempts} attempts. A consumer without
+ * a group gets a queue of its own that is deleted when it is unbound. Partitioning and
+ * binder-specific extended properties are ignored.
+ *
+ * @author Mark Fisher
+ */
+public class LocalMessageChannelBinder implements Binder<MessageChannel, ConsumerProperties, ProducerProperties> {
+
+	private static final Log logger = LogFactory.getLog(LocalMessageChannelBinder.class);
+
+	private static final long POLL_INTERVAL = 100;
+
+	private final LocalBroker broker;
+
+	private final int capacity;
+
+	private final long sendTimeout;
+
+	/**
+	 * @param capacity the number of messages each group's queue can hold
+	 * @param sendTimeout how long a producer waits for room in a full queue, in milliseconds
+	 */
+	public LocalMessageChannelBinder(LocalBroker broker, int capacity, long sendTimeout) {
+		this.broker = broker;
+		this.capacity = capacity;
+		this.sendTimeout = sendTimeout;
+	}
+
+	public LocalBroker getBroker() {
+		return this.broker;
+	}
+
+	public void provisionConsumerDestination(String name, String group) {
+		this.broker.provision(name, group, this.capacity);
+	}
+
+	@Override
+	public Binding<MessageChannel> bindConsumer(final String name, String group, MessageChannel inputChannel,
+			ConsumerProperties consumerProperties) {
+		final boolean anonymous = !StringUtils.hasText(group);
+		final String queueGroup = anonymous ? "anonymous." + UUID.randomUUID() : group;
+		final Consumer consumer = new Consumer(this.broker.provision(name, queueGroup, this.capacity), inputChannel,
+				Math.max(1, consumerProperties.getMaxAttempts()));
+		consumer.start(Math.max(1, consumerProperties.getConcurrency()));
+		return new Binding<MessageChannel>() {
+
+			@Override
+			public void unbind() {
+				consumer.stop();
+				if (anonymous) {
+					broker.delete(name, queueGroup);
+				}
+			}
+		};
+	}
+
+	@Override
+	public Binding<MessageChannel> bindProducer(final String name, MessageChannel outboundBindTarget,
+			ProducerProperties producerProperties) {
+		if (producerProperties.getRequiredGroups() != null) {
+			for (String group : producerProperties.getRequiredGroups()) {
+				this.broker.provision(name, group, this.capacity);
+			}
+		}
+		final SubscribableChannel channel = (SubscribableChannel) outboundBindTarget;
+		final MessageHandler handler = new MessageHandler() {
+
+			@Override
+			public void handleMessage(Message<?> message) throws MessagingException {
+				broker.publish(name, message, sendTimeout);
+			}
+		};
+		channel.subscribe(handler);
+		return new Binding<MessageChannel>() {
+
+			@Override
+			public void unbind() {
+				channel.unsubscribe(handler);
+			}
+		};
+	}
+
+	private static class Consumer implements Runnable {
+
+		private final LocalBroker.Queue queue;
+
+		private final MessageChannel channel;
+
+		private final int maxAttempts;
+
+		private final List<Thread> threads = new ArrayList<>();
+
+		private volatile boolean running;
+
+		Consumer(LocalBroker.Queue queue, MessageChannel channel, int maxAttempts) {
+			this.queue = queue;
+			this.channel = channel;
+			this.maxAttempts = maxAttempts;
+		}
+
+		void start(int concurrency) {
+			this.running = true;
+			for (int i = 0; i < concurrency; i++) {
+				Thread thread = new Thread(this, "local-" + this.queue.getName() + "-" + i);
+				thread.setDaemon(true);
+				this.threads.add(thread);
+				thread.start();
+			}
+			this.queue.addConsumer();
+		}
+
+		void stop() {
+			this.running = false;
+			this.queue.removeConsumer();
+			for (Thread thread : this.threads) {
+				if (thread != Thread.currentThread()) {
+					thread.interrupt();
+				}
+			}
+		}
+
+		@Override
+		public void run() {
+			while (this.running) {
+				Message<?> message;
+				try {
+					message = this.queue.poll(POLL_INTERVAL);
+				}
+				catch (InterruptedException e) {
+					return;
+				}
+				if (message != null) {
+					deliver(message);
+				}
+			}
+		}
+
+		private void deliver(Message<?> message) {
+			for (int attempt = 1;; attempt++) {
+				try {
+					this.channel.send(message);
+					return;
+				}
+				catch (RuntimeException e) {
+					if (attempt >= this.maxAttempts) {
+						logger.error("dropping message from " + this.queue.getName() + " after " + attempt
+								+ " attempts", e);
+						return;
+					}
+				}
+			}
+		}
+	}
+}
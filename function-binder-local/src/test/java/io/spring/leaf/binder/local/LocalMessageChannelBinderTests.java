@@ -0,0 +1,120 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.spring.leaf.binder.local;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import org.springframework.cloud.stream.binder.Binding;
+import org.springframework.cloud.stream.binder.ConsumerProperties;
+import org.springframework.cloud.stream.binder.ProducerProperties;
+import org.springframework.integration.channel.DirectChannel;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.MessagingException;
+import org.springframework.messaging.support.MessageBuilder;
+
+/**
+ * @author Mark Fisher
+ */
+public class LocalMessageChannelBinderTests {
+
+	private final LocalBroker broker = new LocalBroker();
+
+	private final LocalMessageChannelBinder binder = new LocalMessageChannelBinder(this.broker, 16, 100);
+
+	@Test
+	public void everyGroupReceivesEachMessage() throws Exception {
+		BlockingQueue<Object> first = new LinkedBlockingQueue<>();
+		BlockingQueue<Object> second = new LinkedBlockingQueue<>();
+		Binding<MessageChannel> a = this.binder.bindConsumer("words", "a", collect(first), new ConsumerProperties());
+		Binding<MessageChannel> b = this.binder.bindConsumer("words", null, collect(second), new ConsumerProperties());
+		DirectChannel output = new DirectChannel();
+		Binding<MessageChannel> producer = this.binder.bindProducer("words", output, new ProducerProperties());
+		output.send(MessageBuilder.withPayload("hello").build());
+		assertEquals("hello", first.poll(5, TimeUnit.SECONDS));
+		assertEquals("hello", second.poll(5, TimeUnit.SECONDS));
+		producer.unbind();
+		a.unbind();
+		b.unbind();
+	}
+
+	@Test
+	public void namedGroupKeepsMessagesWhileUnbound() throws Exception {
+		this.binder.provisionConsumerDestination("words", "default");
+		DirectChannel output = new DirectChannel();
+		this.binder.bindProducer("words", output, new ProducerProperties());
+		output.send(MessageBuilder.withPayload("early").build());
+		assertEquals(1, this.broker.getQueue("words", "default").getMessageCount());
+		BlockingQueue<Object> received = new LinkedBlockingQueue<>();
+		Binding<MessageChannel> consumer =
+				this.binder.bindConsumer("words", "default", collect(received), new ConsumerProperties());
+		assertEquals("early", received.poll(5, TimeUnit.SECONDS));
+		consumer.unbind();
+		assertEquals(0, this.broker.getQueue("words", "default").getConsumerCount());
+	}
+
+	@Test
+	public void anonymousQueueIsDeletedOnUnbind() {
+		Binding<MessageChannel> consumer = this.binder.bindConsumer("words", null, new DirectChannel(),
+				new ConsumerProperties());
+		DirectChannel output = new DirectChannel();
+		this.binder.bindProducer("words", output, new ProducerProperties());
+		consumer.unbind();
+		output.send(MessageBuilder.withPayload("late").build());
+		assertNull(this.broker.getQueue("words", "default"));
+		assertEquals(0, this.broker.publish("words", MessageBuilder.withPayload("x").build(), 0));
+	}
+
+	@Test
+	public void concurrentConsumersShareOneGroup() throws Exception {
+		ConsumerProperties properties = new ConsumerProperties();
+		properties.setConcurrency(4);
+		BlockingQueue<Object> received = new LinkedBlockingQueue<>();
+		Binding<MessageChannel> consumer = this.binder.bindConsumer("words", "default", collect(received), properties);
+		for (int i = 0; i < 100; i++) {
+			this.broker.publish("words", MessageBuilder.withPayload(i).build(), 1000);
+		}
+		long deadline = System.currentTimeMillis() + 5000;
+		while (received.size() < 100 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(100, received.size());
+		assertTrue(this.broker.getQueue("words", "default").getMessageCount() == 0);
+		consumer.unbind();
+	}
+
+	private static DirectChannel collect(final BlockingQueue<Object> received) {
+		DirectChannel channel = new DirectChannel();
+		channel.subscribe(new MessageHandler() {
+
+			@Override
+			public void handleMessage(Message<?> message) throws MessagingException {
+				received.add(message.getPayload());
+			}
+		});
+		return channel;
+	}
+}
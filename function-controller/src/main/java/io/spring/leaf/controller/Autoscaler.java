@@ -0,0 +1,155 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.spring.leaf.controller;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import io.spring.leaf.controller.BrokerAdmin.QueueStatus;
+import io.spring.leaf.controller.repository.BindingRepository;
+
+/**
+ * Control loop that scales each active binding between one and
+ * {@code leaf.autoscaler.max-instances} runner instances. The desired instance count is
+ * the larger of the queue backlog divided by {@code target-backlog} and the reported
+ * invocation rate divided by {@code target-rate}. After each change a binding is left
+ * alone for {@code cooldown} milliseconds, and scale-down removes one instance at a time.
+ *
+ * @author Mark Fisher
+ */
+@Component
+public class Autoscaler implements DisposableBean {
+
+	private static final Log logger = LogFactory.getLog(Autoscaler.class);
+
+	@Autowired
+	private BindingRepository bindingRepository;
+
+	@Autowired
+	private Deployer deployer;
+
+	@Autowired
+	private BrokerAdmin brokerAdmin;
+
+	@Autowired
+	private RunnerStatsCollector stats;
+
+	@Autowired
+	private Cluster cluster;
+
+	@Value("${leaf.autoscaler.enabled:true}")
+	private boolean enabled;
+
+	@Value("${leaf.autoscaler.interval:5000}")
+	private long interval;
+
+	@Value("${leaf.autoscaler.target-backlog:100}")
+	private long targetBacklog;
+
+	@Value("${leaf.autoscaler.target-rate:50}")
+	private double targetRate;
+
+	@Value("${leaf.autoscaler.max-instances:10}")
+	private int maxInstances;
+
+	@Value("${leaf.autoscaler.cooldown:30000}")
+	private long cooldown;
+
+	private final Map<String, Long> lastScaled = new ConcurrentHashMap<>();
+
+	private ScheduledExecutorService executor;
+
+	public synchronized void start() {
+		if (this.executor != null || !this.enabled) {
+			return;
+		}
+		this.stats.start();
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("leaf-autoscaler-");
+		threadFactory.setDaemon(true);
+		this.executor = Executors.newSingleThreadScheduledExecutor(threadFactory);
+		this.executor.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					scale();
+				}
+				catch (RuntimeException e) {
+					logger.error("autoscaler cycle failed", e);
+				}
+			}
+		}, this.interval, this.interval, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public synchronized void destroy() {
+		if (this.executor != null) {
+			this.executor.shutdownNow();
+		}
+	}
+
+	void scale() {
+		long now = System.currentTimeMillis();
+		for (String name : this.bindingRepository.names()) {
+			Binding binding = this.bindingRepository.get(name);
+			// in a cluster each binding is scaled by its owner only
+			if (binding == null || this.deployer.isShared(binding.getRunner()) || !this.cluster.owns(name)) {
+				continue;
+			}
+			List<String> instances = this.stats.getInstances(name);
+			if (instances.isEmpty()) {
+				continue;
+			}
+			Long last = this.lastScaled.get(name);
+			if (last != null && now - last < this.cooldown) {
+				continue;
+			}
+			int desired = desiredInstances(binding);
+			if (desired > instances.size()) {
+				logger.info("scaling binding " + name + " up from " + instances.size() + " to " + desired);
+				this.deployer.scaleBindingPool(name, desired - instances.size());
+				this.lastScaled.put(name, now);
+			}
+			else if (desired < instances.size()) {
+				logger.info("scaling binding " + name + " down from " + instances.size());
+				this.deployer.scaleBindingPool(name, -1);
+				this.lastScaled.put(name, now);
+			}
+		}
+	}
+
+	private int desiredInstances(Binding binding) {
+		QueueStatus queue = this.brokerAdmin.getQueueStatus(binding.getInput(), "default");
+		long backlog = (queue != null) ? queue.getMessageCount() : 0;
+		int byBacklog = (int) Math.ceil((double) backlog / this.targetBacklog);
+		int byRate = (int) Math.ceil(this.stats.getRate(binding.getName()) / this.targetRate);
+		return Math.min(this.maxInstances, Math.max(1, Math.max(byBacklog, byRate)));
+	}
+}
@@ -16,6 +16,12 @@
 
 package io.spring.leaf.controller;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import org.springframework.util.StringUtils;
+
 /**
  * @author Mark Fisher
  */
@@ -31,6 +37,22 @@ public class Binding {
 
 	private String output;
 
+	private boolean streaming;
+
+	private String version;
+
+	private int batchSize = 1;
+
+	private long batchTimeout = 100;
+
+	private int concurrency = 1;
+
+	private Integer prefetch;
+
+	private Integer maxInFlight;
+
+	private String contentType;
+
 	public Binding(String name, String function, String runner) {
 		this.name = name;
 		this.function = function;
@@ -45,6 +67,16 @@ public class Binding {
 		return function;
 	}
 
+	/**
+	 * A binding whose function names several registered functions, separated by commas,
+	 * is a fused pipeline: the functions are composed in order inside one runner, and only
+	 * the first input and the last output go through the broker.
+	 * @return the functions to apply, in order
+	 */
+	public String[] getStages() {
+		return StringUtils.commaDelimitedListToStringArray(function);
+	}
+
 	public String getRunner() {
 		return runner;
 	}
@@ -65,9 +97,138 @@ public class Binding {
 		this.output = output;
 	}
 
+	public boolean isStreaming() {
+		return streaming;
+	}
+
+	public void setStreaming(boolean streaming) {
+		this.streaming = streaming;
+	}
+
+	/**
+	 * @return the content hash of the function version this binding runs, one per stage for a
+	 * fused pipeline
+	 */
+	public String getVersion() {
+		return version;
+	}
+
+	public void setVersion(String version) {
+		this.version = version;
+	}
+
+	/**
+	 * @return the number of messages the function is applied to at once
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * @return how long, in milliseconds, a partial batch waits for more messages
+	 */
+	public long getBatchTimeout() {
+		return batchTimeout;
+	}
+
+	public void setBatchTimeout(long batchTimeout) {
+		this.batchTimeout = batchTimeout;
+	}
+
+	/**
+	 * @return the number of consumer threads in each runner instance
+	 */
+	public int getConcurrency() {
+		return concurrency;
+	}
+
+	public void setConcurrency(int concurrency) {
+		this.concurrency = concurrency;
+	}
+
+	/**
+	 * @return the number of unacknowledged messages per consumer, or {@code null} for the binder default
+	 */
+	public Integer getPrefetch() {
+		return prefetch;
+	}
+
+	public void setPrefetch(Integer prefetch) {
+		this.prefetch = prefetch;
+	}
+
+	/**
+	 * @return the most messages one runner instance works on at once, or {@code null} for no limit
+	 */
+	public Integer getMaxInFlight() {
+		return maxInFlight;
+	}
+
+	public void setMaxInFlight(Integer maxInFlight) {
+		this.maxInFlight = maxInFlight;
+	}
+
+	public String getContentType() {
+		return contentType;
+	}
+
+	public void setContentType(String contentType) {
+		this.contentType = contentType;
+	}
+
+	/**
+	 * @return the binding as string properties, as it is persisted and replicated
+	 */
+	public Map<String, String> toProperties() {
+		Map<String, String> properties = new HashMap<>();
+		properties.put("name", name);
+		properties.put("function", function);
+		properties.put("runner", runner);
+		properties.put("input", input);
+		properties.put("output", output);
+		properties.put("streaming", String.valueOf(streaming));
+		properties.put("version", version);
+		properties.put("batchSize", String.valueOf(batchSize));
+		properties.put("batchTimeout", String.valueOf(batchTimeout));
+		properties.put("concurrency", String.valueOf(concurrency));
+		properties.put("prefetch", Objects.toString(prefetch, null));
+		properties.put("maxInFlight", Objects.toString(maxInFlight, null));
+		properties.put("contentType", contentType);
+		return properties;
+	}
+
+	public static Binding fromProperties(Map<String, String> properties) {
+		Binding binding = new Binding(properties.get("name"), properties.get("function"), properties.get("runner"));
+		binding.setInput(properties.get("input"));
+		binding.setOutput(properties.get("output"));
+		binding.setStreaming(Boolean.parseBoolean(properties.get("streaming")));
+		binding.setVersion(properties.get("version"));
+		binding.setContentType(properties.get("contentType"));
+		if (properties.get("batchSize") != null) {
+			binding.setBatchSize(Integer.parseInt(properties.get("batchSize")));
+			binding.setBatchTimeout(Long.parseLong(properties.get("batchTimeout")));
+		}
+		if (properties.get("concurrency") != null) {
+			binding.setConcurrency(Integer.parseInt(properties.get("concurrency")));
+		}
+		if (properties.get("prefetch") != null) {
+			binding.setPrefetch(Integer.valueOf(properties.get("prefetch")));
+		}
+		if (properties.get("maxInFlight") != null) {
+			binding.setMaxInFlight(Integer.valueOf(properties.get("maxInFlight")));
+		}
+		return binding;
+	}
+
 	@Override
 	public String toString() {
 		return "Binding [name=" + name + ", function=" + function + ", runner=" + runner + ", input=" + input
-				+ ", output=" + output + "]";
+				+ ", output=" + output + ", streaming=" + streaming + ", version=" + version + ", batchSize="
+				+ batchSize + ", batchTimeout=" + batchTimeout + ", concurrency=" + concurrency + ", prefetch="
+				+ prefetch + ", maxInFlight=" + maxInFlight + ", contentType=" + contentType + "]";
 	}
 }
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.spring.leaf.controller;
+
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cloud.stream.binder.Binder;
+import org.springframework.cloud.stream.binder.BinderFactory;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.stereotype.Component;
+
+/**
+ * Access to the broker behind the default binder: destination provisioning and queue
+ * status, delegated to the {@link BrokerProvisioner} that supports the binder.
+ *
+ * @author Mark Fisher
+ */
+@Component
+public class BrokerAdmin {
+
+	@Autowired
+	private BinderFactory binderFactory;
+
+	@Autowired
+	private List<BrokerProvisioner> provisioners;
+
+	@SuppressWarnings("rawtypes")
+	public Binder getBinder() {
+		return this.binderFactory.getBinder(null, MessageChannel.class);
+	}
+
+	public void provisionConsumerDestination(String topic, String group) {
+		Binder<?, ?, ?> binder = getBinder();
+		getProvisioner(binder).provisionConsumerDestination(binder, topic, group);
+	}
+
+	/**
+	 * @return the status of the queue consumed by the given group, or {@code null} if
+	 * the queue does not exist or the broker cannot be reached
+	 */
+	public QueueStatus getQueueStatus(String topic, String group) {
+		Binder<?, ?, ?> binder = getBinder();
+		return getProvisioner(binder).getQueueStatus(binder, topic, group);
+	}
+
+	/**
+	 * @return whether processes other than this one, such as launched runners, can reach
+	 * the default binder's destinations
+	 */
+	public boolean isShared() {
+		return getProvisioner(getBinder()).isShared();
+	}
+
+	private BrokerProvisioner getProvisioner(Binder<?, ?, ?> binder) {
+		for (BrokerProvisioner provisioner : this.provisioners) {
+			if (provisioner.supports(binder)) {
+				return provisioner;
+			}
+		}
+		throw new IllegalStateException("no provisioner for binder " + binder.getClass().getName());
+	}
+
+	public static class QueueStatus {
+
+		private final long messageCount;
+
+		private final int consumerCount;
+
+		public QueueStatus(long messageCount, int consumerCount) {
+			this.messageCount = messageCount;
+			this.consumerCount = consumerCount;
+		}
+
+		public long getMessageCount() {
+			return messageCount;
+		}
+
+		public int getConsumerCount() {
+			return consumerCount;
+		}
+	}
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.spring.leaf.controller;
+
+import org.springframework.cloud.stream.binder.Binder;
+
+import io.spring.leaf.controller.BrokerAdmin.QueueStatus;
+
+/**
+ * Destination provisioning and queue inspection for one kind of binder. The
+ * {@link BrokerAdmin} delegates to the provisioner that supports the default binder.
+ *
+ * @author Mark Fisher
+ */
+public interface BrokerProvisioner {
+
+	boolean supports(Binder<?, ?, ?> binder);
+
+	/**
+	 * @return whether the destinations are reachable from other processes, such as the
+	 * runners launched by the app deployer
+	 */
+	boolean isShared();
+
+	/**
+	 * Create the topic and the queue the given group consumes from, so messages are kept
+	 * until a consumer binds.
+	 */
+	void provisionConsumerDestination(Binder<?, ?, ?> binder, String topic, String group);
+
+	/**
+	 * @return the status of the queue consumed by the given group, or {@code null} if
+	 * the queue does not exist or the broker cannot be reached
+	 */
+	QueueStatus getQueueStatus(Binder<?, ?, ?> binder, String topic, String group);
+}
@@ -0,0 +1,495 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.spring.leaf.controller;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.cloud.stream.binder.Binder;
+import org.springframework.cloud.stream.binder.ExtendedConsumerProperties;
+import org.springframework.cloud.stream.binder.rabbit.properties.RabbitConsumerProperties;
+import org.springframework.cloud.stream.binding.BinderAwareChannelResolver;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.integration.channel.DirectChannel;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.MessagingException;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Membership of a cluster of controllers, and replication of their definitions.
+ * <p>
+ * Every member publishes a heartbeat with its URL to the {@code leaf-cluster} topic every
+ * {@code leaf.cluster.heartbeat-interval} milliseconds, and a member not heard from for
+ * {@code leaf.cluster.member-timeout} milliseconds is dropped. The live members form a
+ * {@link ConsistentHashRing} that decides which member owns each binding and trigger:
+ * only the owner monitors, activates and scales a binding or fires a trigger. Whenever
+ * the membership changes a {@link MembershipChangedEvent} is published so that ownership
+ * is rebalanced. Until the membership has settled, that is until every live member has
+ * had two heartbeat intervals to be heard, this member owns nothing, so one joining a
+ * running cluster does not briefly fire every trigger and activate every binding. The
+ * first event is published when it settles.
+ * <p>
+ * Definitions are not partitioned: a change accepted by any member is applied locally
+ * and broadcast as a put or removal of a {@link ReplicatedState}, so every member can
+ * answer reads and take over any key. When members join, the lowest established member
+ * of the previous view that is still alive sends its full state to the newcomers only,
+ * which brings them up to date: they drop what they recovered from their journals but
+ * the snapshot no longer contains. A member is established once it has been part of a
+ * larger view, or alone for longer than the member timeout, so a member that restarts
+ * into a running cluster never pushes its possibly stale state. Other conflicting
+ * concurrent changes are resolved by the last write each member receives.
+ * <p>
+ * With {@code leaf.cluster.enabled=false}, the default, this controller is the only
+ * member and owns everything.
+ *
+ * @author Mark Fisher
+ */
+@Component
+public class Cluster implements InitializingBean, DisposableBean {
+
+	private static final Log logger = LogFactory.getLog(Cluster.class);
+
+	public static final String CLUSTER_TOPIC = "leaf-cluster";
+
+	private static final String MEMBER_HEADER = "leafClusterMember";
+
+	private static final String TYPE_HEADER = "leafClusterType";
+
+	private static final String OP_HEADER = "leafClusterOp";
+
+	private static final String TO_HEADER = "leafClusterTo";
+
+	private static final String HEARTBEAT = "heartbeat";
+
+	private static final String LEAVE = "leave";
+
+	private static final String PUT = "put";
+
+	private static final String REMOVE = "remove";
+
+	private static final String SYNCED = "synced";
+
+	@Autowired
+	private BinderAwareChannelResolver resolver;
+
+	@Autowired
+	private BrokerAdmin brokerAdmin;
+
+	@Autowired
+	private ApplicationEventPublisher publisher;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Value("${leaf.cluster.enabled:false}")
+	private boolean enabled;
+
+	@Value("${leaf.cluster.member-id:${random.uuid}}")
+	private String memberId = UUID.randomUUID().toString();
+
+	@Value("${leaf.cluster.url:http://localhost:${server.port:5323}}")
+	private String url = "http://localhost:5323";
+
+	@Value("${leaf.cluster.heartbeat-interval:1000}")
+	private long heartbeatInterval = 1000;
+
+	@Value("${leaf.cluster.member-timeout:5000}")
+	private long memberTimeout = 5000;
+
+	@Value("${leaf.cluster.virtual-nodes:100}")
+	private int virtualNodes = 100;
+
+	private final ConcurrentMap<String, Member> members = new ConcurrentHashMap<>();
+
+	private final Map<String, ReplicatedState> states = new ConcurrentHashMap<>();
+
+	/**
+	 * The keys of each state this member had when it started, until a snapshot arrives.
+	 */
+	private final Map<String, Set<String>> recoveredKeys = new ConcurrentHashMap<>();
+
+	private volatile ConsistentHashRing ring;
+
+	// only read and written by the membership thread once started
+	private Set<String> view;
+
+	private boolean established;
+
+	private volatile boolean settled;
+
+	private long startTime;
+
+	private volatile MessageChannel channel;
+
+	private volatile org.springframework.cloud.stream.binder.Binding<MessageChannel> binding;
+
+	private ScheduledExecutorService executor;
+
+	@Override
+	public void afterPropertiesSet() {
+		this.view = Collections.unmodifiableSet(new TreeSet<>(Collections.singleton(this.memberId)));
+		this.ring = new ConsistentHashRing(this.view, this.virtualNodes);
+	}
+
+	@EventListener(ApplicationReadyEvent.class)
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public synchronized void start() {
+		if (!this.enabled || this.executor != null) {
+			return;
+		}
+		for (Map.Entry<String, ReplicatedState> state : this.states.entrySet()) {
+			this.recoveredKeys.put(state.getKey(), new HashSet<>(state.getValue().keys()));
+		}
+		this.startTime = System.currentTimeMillis();
+		DirectChannel input = new DirectChannel();
+		input.subscribe(new MessageHandler() {
+
+			@Override
+			public void handleMessage(Message<?> message) throws MessagingException {
+				receive(message);
+			}
+		});
+		Binder binder = this.brokerAdmin.getBinder();
+		// anonymous group: every member receives every message
+		this.binding = binder.bindConsumer(CLUSTER_TOPIC, null, input,
+				new ExtendedConsumerProperties<RabbitConsumerProperties>(new RabbitConsumerProperties()));
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("leaf-cluster-");
+		threadFactory.setDaemon(true);
+		this.executor = Executors.newSingleThreadScheduledExecutor(threadFactory);
+		this.executor.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					send(HEARTBEAT, null, Collections.singletonMap("url", url));
+					checkMembers();
+				}
+				catch (RuntimeException e) {
+					logger.warn("cluster heartbeat failed", e);
+				}
+			}
+		}, 0, this.heartbeatInterval, TimeUnit.MILLISECONDS);
+		logger.info("joining cluster as " + this.memberId + " at " + this.url);
+	}
+
+	@Override
+	public synchronized void destroy() {
+		if (this.executor == null) {
+			return;
+		}
+		this.executor.shutdownNow();
+		try {
+			// let the others rebalance now rather than after the member timeout
+			send(LEAVE, null, Collections.<String, String>emptyMap());
+		}
+		catch (RuntimeException e) {
+			logger.debug("failed to announce leaving the cluster", e);
+		}
+		this.binding.unbind();
+	}
+
+	/**
+	 * Register a kind of state to replicate. Puts and removals received for it from
+	 * other members are applied through the given callbacks.
+	 */
+	public void register(String name, ReplicatedState state) {
+		this.states.put(name, state);
+	}
+
+	/**
+	 * Broadcast an entry that was created or changed on this member.
+	 */
+	public void publish(String name, Map<String, String> entry) {
+		if (this.enabled) {
+			send(name, PUT, entry);
+		}
+	}
+
+	/**
+	 * Broadcast the removal of an entry on this member.
+	 */
+	public void publishRemoval(String name, String key) {
+		if (this.enabled) {
+			send(name, REMOVE, Collections.singletonMap("key", key));
+		}
+	}
+
+	/**
+	 * @return whether this member is responsible for the key, which is always the case
+	 * when clustering is disabled and never before the membership has settled
+	 */
+	public boolean owns(String key) {
+		return !this.enabled || (this.settled && this.memberId.equals(this.ring.owner(key)));
+	}
+
+	/**
+	 * @return the base URL of the member that owns the key
+	 */
+	public String getOwnerUrl(String key) {
+		String owner = this.ring.owner(key);
+		Member member = (owner != null) ? this.members.get(owner) : null;
+		return (member != null) ? member.url : this.url;
+	}
+
+	public boolean isEnabled() {
+		return this.enabled;
+	}
+
+	public String getMemberId() {
+		return this.memberId;
+	}
+
+	public String getUrl() {
+		return this.url;
+	}
+
+	/**
+	 * @return the URL of each live member by member id, this one included
+	 */
+	public Map<String, String> getMembers() {
+		Map<String, String> results = new LinkedHashMap<>();
+		for (String id : this.ring.getMembers()) {
+			Member member = this.members.get(id);
+			results.put(id, id.equals(this.memberId) ? this.url : (member != null) ? member.url : null);
+		}
+		return results;
+	}
+
+	void receive(Message<?> message) {
+		String origin = message.getHeaders().get(MEMBER_HEADER, String.class);
+		if (origin == null || origin.equals(this.memberId)) {
+			return;
+		}
+		String to = message.getHeaders().get(TO_HEADER, String.class);
+		if (to != null && !StringUtils.commaDelimitedListToSet(to).contains(this.memberId)) {
+			return;
+		}
+		String type = message.getHeaders().get(TYPE_HEADER, String.class);
+		Map<String, String> body = decode(message.getPayload());
+		if (HEARTBEAT.equals(type)) {
+			this.members.put(origin, new Member(body.get("url"), System.currentTimeMillis()));
+		}
+		else if (LEAVE.equals(type)) {
+			this.members.remove(origin);
+		}
+		else {
+			ReplicatedState state = this.states.get(type);
+			if (state == null) {
+				logger.debug("ignoring update of unknown state " + type + " from " + origin);
+			}
+			else if (REMOVE.equals(message.getHeaders().get(OP_HEADER))) {
+				state.remove(body.get("key"));
+			}
+			else if (SYNCED.equals(message.getHeaders().get(OP_HEADER))) {
+				dropStale(type, state, body.keySet());
+			}
+			else {
+				state.put(body);
+			}
+		}
+	}
+
+	/**
+	 * Drop members that stopped sending heartbeats and, if the set of live members
+	 * changed, rebuild the ring and announce the change.
+	 */
+	void checkMembers() {
+		long now = System.currentTimeMillis();
+		long cutoff = now - this.memberTimeout;
+		for (Map.Entry<String, Member> entry : this.members.entrySet()) {
+			if (entry.getValue().lastSeen < cutoff) {
+				this.members.remove(entry.getKey(), entry.getValue());
+			}
+		}
+		Set<String> current = new TreeSet<>(this.members.keySet());
+		current.add(this.memberId);
+		boolean settling = !this.settled && now - this.startTime >= 2 * this.heartbeatInterval;
+		if (current.equals(this.view) && !settling) {
+			return;
+		}
+		Set<String> previous = this.view;
+		if (!current.equals(previous)) {
+			this.view = Collections.unmodifiableSet(current);
+			this.ring = new ConsistentHashRing(current, this.virtualNodes);
+			logger.info("cluster members changed from " + previous + " to " + current);
+			if (!this.established) {
+				this.established = previous.size() > 1 || now - this.startTime >= this.memberTimeout;
+			}
+			Set<String> joined = new TreeSet<>(current);
+			joined.removeAll(previous);
+			Set<String> survivors = new TreeSet<>(previous);
+			survivors.retainAll(current);
+			if (!joined.isEmpty() && this.established && this.memberId.equals(survivors.iterator().next())) {
+				sync(joined);
+			}
+			this.established |= current.size() > 1;
+		}
+		if (settling) {
+			this.settled = true;
+			logger.info("cluster membership settled with " + current);
+		}
+		if (this.settled) {
+			this.publisher.publishEvent(new MembershipChangedEvent(this, previous, this.view));
+		}
+	}
+
+	private void sync(Set<String> joined) {
+		String to = StringUtils.collectionToCommaDelimitedString(joined);
+		int count = 0;
+		for (Map.Entry<String, ReplicatedState> state : this.states.entrySet()) {
+			for (Map<String, String> entry : state.getValue().entries()) {
+				send(state.getKey(), PUT, entry, to);
+				count++;
+			}
+			Map<String, String> keys = new LinkedHashMap<>();
+			for (String key : state.getValue().keys()) {
+				keys.put(key, "");
+			}
+			send(state.getKey(), SYNCED, keys, to);
+		}
+		logger.info("sent " + count + " entries to joining members " + joined);
+	}
+
+	/**
+	 * Remove what this member recovered at startup but a snapshot no longer contains,
+	 * because it was removed while this member was away.
+	 */
+	private void dropStale(String name, ReplicatedState state, Set<String> snapshot) {
+		Set<String> recovered = this.recoveredKeys.remove(name);
+		if (recovered == null) {
+			return;
+		}
+		Collection<String> current = state.keys();
+		for (String key : recovered) {
+			if (!snapshot.contains(key) && current.contains(key)) {
+				logger.info("dropping " + name + " entry " + key + " removed while this member was away");
+				state.remove(key);
+			}
+		}
+	}
+
+	private void send(String type, String op, Map<String, String> body) {
+		send(type, op, body, null);
+	}
+
+	private void send(String type, String op, Map<String, String> body, String to) {
+		byte[] payload;
+		try {
+			payload = this.objectMapper.writeValueAsBytes(body);
+		}
+		catch (JsonProcessingException e) {
+			throw new IllegalStateException("failed to encode cluster message", e);
+		}
+		MessageBuilder<byte[]> builder = MessageBuilder.withPayload(payload).setHeader(MEMBER_HEADER, this.memberId)
+				.setHeader(TYPE_HEADER, type);
+		if (op != null) {
+			builder.setHeader(OP_HEADER, op);
+		}
+		if (to != null) {
+			builder.setHeader(TO_HEADER, to);
+		}
+		MessageChannel output = this.channel;
+		if (output == null) {
+			output = this.resolver.resolveDestination(CLUSTER_TOPIC);
+			this.channel = output;
+		}
+		output.send(builder.build());
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map<String, String> decode(Object payload) {
+		if (payload instanceof Map) {
+			return (Map<String, String>) payload;
+		}
+		try {
+			return (payload instanceof byte[])
+					? this.objectMapper.readValue((byte[]) payload, new TypeReference<Map<String, String>>() {})
+					: this.objectMapper.readValue(payload.toString(), new TypeReference<Map<String, String>>() {});
+		}
+		catch (IOException e) {
+			throw new IllegalArgumentException("failed to decode cluster message", e);
+		}
+	}
+
+	/**
+	 * A kind of state that every member keeps a full copy of, such as the bindings.
+	 */
+	public interface ReplicatedState {
+
+		/**
+		 * @return every entry, in the order a joining member should apply them
+		 */
+		Collection<Map<String, String>> entries();
+
+		/**
+		 * @return the keys of the entries, or none if removals are not replicated
+		 */
+		Collection<String> keys();
+
+		/**
+		 * Apply an entry created or changed on another member.
+		 */
+		void put(Map<String, String> entry);
+
+		/**
+		 * Apply the removal of an entry on another member.
+		 */
+		void remove(String key);
+	}
+
+	private static class Member {
+
+		private final String url;
+
+		private final long lastSeen;
+
+		Member(String url, long lastSeen) {
+			this.url = url;
+			this.lastSeen = lastSeen;
+		}
+	}
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.spring.leaf.controller;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Assigns keys to members by consistent hashing. Each member is placed on the ring at
+ * {@code virtualNodes} points, and a key belongs to the member at the first point at or
+ * after the key's hash, so a member joining or leaving only moves the keys between its
+ * points and their predecessors. A ring is immutable; membership changes build a new one.
+ *
+ * @author Mark Fisher
+ */
+public class ConsistentHashRing {
+
+	private final NavigableMap<Long, String> points = new TreeMap<>();
+
+	private final Set<String> members;
+
+	public ConsistentHashRing(Collection<String> members, int virtualNodes) {
+		this.members = Collections.unmodifiableSet(new TreeSet<>(members));
+		for (String member : this.members) {
+			for (int i = 0; i < virtualNodes; i++) {
+				// on a collision the smaller member id wins, whatever the order of insertion
+				this.points.merge(hash(member + "#" + i), member, (a, b) -> (a.compareTo(b) <= 0) ? a : b);
+			}
+		}
+	}
+
+	public Set<String> getMembers() {
+		return this.members;
+	}
+
+	/**
+	 * @return the member that owns the key, or {@code null} if the ring is empty
+	 */
+	public String owner(String key) {
+		if (this.points.isEmpty()) {
+			return null;
+		}
+		Map.Entry<Long, String> point = this.points.ceilingEntry(hash(key));
+		return (point != null) ? point.getValue() : this.points.firstEntry().getValue();
+	}
+
+	static long hash(String key) {
+		try {
+			byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+			long hash = 0;
+			for (int i = 0; i < 8; i++) {
+				hash = (hash << 8) | (digest[i] & 0xff);
+			}
+			return hash;
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("MD5 not available", e);
+		}
+	}
+}
@@ -17,14 +17,34 @@
 package io.spring.leaf.controller;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.amqp.core.AcknowledgeMode;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cloud.deployer.spi.app.AppDeployer;
+import org.springframework.cloud.deployer.spi.app.DeploymentState;
 import org.springframework.cloud.deployer.spi.core.AppDefinition;
 import org.springframework.cloud.deployer.spi.core.AppDeploymentRequest;
 import org.springframework.cloud.stream.binder.Binder;
@@ -38,35 +58,82 @@ import org.springframework.messaging.Message;
 import org.springframework.messaging.MessageChannel;
 import org.springframework.messaging.MessageHandler;
 import org.springframework.messaging.MessagingException;
-import org.springframework.messaging.SubscribableChannel;
 import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Component;
 import org.springframework.util.Assert;
 import org.springframework.util.StringUtils;
 
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import io.spring.leaf.controller.repository.BindingRepository;
+import io.spring.leaf.controller.repository.RunnerRepository;
 
 /**
+ * Activates bindings on runners and manages the runner instances behind them.
+ * <p>
+ * The first message on an inactive binding's topic only moves the binding to
+ * {@link BindingState#PENDING} and queues its activation, so the monitor's consumer
+ * thread never waits for a deployment, and a burst of messages queues a single
+ * activation. Activations run on {@code leaf.deployer.parallelism} threads, and at most
+ * that many {@link AppDeployer} deploy or undeploy calls are in progress at once,
+ * including those refilling runner pools. A binding whose activation fails is
+ * {@link BindingState#FAILED} and is retried on the next message.
+ *
  * @author Mark Fisher
  */
 @Component
-public class Deployer {
+public class Deployer implements InitializingBean, DisposableBean {
+
+	private static final Log logger = LogFactory.getLog(Deployer.class);
 
 	private static final String RUNNER_CHANNEL_PREFIX = "runner-";
 
+	/**
+	 * Undeploy requests for instances and hosted bindings that another member launched.
+	 */
+	private static final String UNDEPLOYS = "undeploys";
+
+	private static final long COLD_START_TIMEOUT_MILLIS = 120000;
+
+	private static final long COLD_START_POLL_MILLIS = 100;
+
 	@Autowired
 	private BindingRepository bindingRepository;
 
-	private final Map<String, Resource> runnerResources = new HashMap<>();
+	private final Map<String, Resource> runnerResources = new ConcurrentHashMap<>();
+
+	private final Set<String> sharedRunners = ConcurrentHashMap.newKeySet();
+
+	@Autowired
+	private RunnerRepository runnerRepository;
 
 	@Autowired
 	private BinderAwareChannelResolver channelResolver;
 
-	private final Map<String, List<String>> runnerDeployments = new HashMap<>();
+	private final Map<String, List<String>> runnerDeployments = new ConcurrentHashMap<>();
+
+	private final Map<String, AtomicInteger> runnerIndexes = new ConcurrentHashMap<>();
+
+	private final Map<String, String> instanceDeployments = new ConcurrentHashMap<>();
+
+	@Autowired
+	private RunnerStatsCollector runnerStats;
+
+	@Autowired
+	private FunctionRegistryController registry;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
 
-	private Set<String> seen = new HashSet<>();
+	@Autowired
+	private Cluster cluster;
 
-	private Map<String, MessageChannel> bootstrapChannels = new HashMap<>();
+	private final ConcurrentMap<String, BindingState> bindingStates = new ConcurrentHashMap<>();
+
+	private final Map<String, MessageChannel> bootstrapChannels = new ConcurrentHashMap<>();
+
+	private final Map<String, Object> sharedRunnerLocks = new ConcurrentHashMap<>();
 
 	@Autowired
 	private AppDeployer appDeployer;
@@ -74,7 +141,78 @@ public class Deployer {
 	@Autowired
 	private ResourceLoader resourceLoader;
 
-	private final Map<String, SubscribableChannel> monitorChannels = new HashMap<>();
+	@Autowired
+	private BrokerAdmin brokerAdmin;
+
+	private final Map<String, org.springframework.cloud.stream.binder.Binding<MessageChannel>> monitorBindings = new ConcurrentHashMap<>();
+
+	private volatile Binder<MessageChannel, ?, ?> monitorBinder;
+
+	private final Map<String, RunnerPool> runnerPools = new ConcurrentHashMap<>();
+
+	private ScheduledThreadPoolExecutor poolExecutor;
+
+	private ThreadPoolExecutor deploymentExecutor;
+
+	private Semaphore appDeployerPermits;
+
+	@Value("${leaf.registry.url:${leaf.cluster.url:http://localhost:${server.port:5323}}}")
+	private String registryUrl;
+
+	@Value("${leaf.runner.pool-size:1}")
+	private int defaultPoolSize = 1;
+
+	@Value("${leaf.deployer.parallelism:4}")
+	private int parallelism = 4;
+
+	@Value("${leaf.autoscaler.max-instances:10}")
+	private int maxInstances = 10;
+
+	private static CustomizableThreadFactory threadFactory(String prefix) {
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(prefix);
+		threadFactory.setDaemon(true);
+		return threadFactory;
+	}
+
+	@Override
+	public void afterPropertiesSet() {
+		this.appDeployerPermits = new Semaphore(this.parallelism);
+		// an activation is queued at most once per binding, and a manual scale-up adds at
+		// most max-instances tasks, so the queue stays short without being bounded
+		this.deploymentExecutor = new ThreadPoolExecutor(this.parallelism, this.parallelism, 0, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>(), threadFactory("leaf-deployer-"));
+		this.meterRegistry.gauge("leaf.deployer.queue", this.deploymentExecutor, e -> e.getQueue().size());
+		// launches are throttled by the permits anyway, and cold starts are watched by
+		// polling tasks rather than by a thread each
+		this.poolExecutor = new ScheduledThreadPoolExecutor(this.parallelism, threadFactory("leaf-runner-pool-"));
+		this.cluster.register(UNDEPLOYS, new Cluster.ReplicatedState() {
+
+			@Override
+			public Collection<Map<String, String>> entries() {
+				return Collections.emptySet();
+			}
+
+			@Override
+			public Collection<String> keys() {
+				return Collections.emptySet();
+			}
+
+			@Override
+			public void put(Map<String, String> entry) {
+				// only the member that launched the instance or runner can undeploy it
+				if (entry.containsKey("instance")) {
+					undeployLocalInstance(entry.get("instance"));
+				}
+				else if (isRunning(entry.get("runner"))) {
+					sendUndeployBinding(entry.get("binding"), entry.get("runner"));
+				}
+			}
+
+			@Override
+			public void remove(String key) {
+			}
+		});
+	}
 
 	public String getRunnerNames() {
 		return StringUtils.collectionToCommaDelimitedString(this.runnerResources.keySet()) + "\n";
@@ -82,6 +220,9 @@ public class Deployer {
 
 	public String getRunnerStatus(String runner) {
 		List<String> deploymentIds = this.runnerDeployments.get(runner);
+		if (deploymentIds == null) {
+			return "";
+		}
 		StringBuilder builder = new StringBuilder();
 		for (String deploymentId : deploymentIds) {
 			builder.append(deploymentId.replaceFirst("null\\.", ""));
@@ -90,66 +231,637 @@ public class Deployer {
 		return builder.toString();
 	}
 
+	public String getRunnerPool(String runner) {
+		RunnerPool pool = this.runnerPools.get(runner);
+		Assert.notNull(pool, "no pool for runner: " + runner);
+		return pool.toString() + "\n";
+	}
+
+	/**
+	 * Grow or shrink a runner. A pooled runner's pool is resized, and shrinking it
+	 * undeploys idle instances beyond the new size. A shared runner gains or loses
+	 * instances directly, but keeps one while it hosts an active binding.
+	 */
 	public String scaleRunnerPool(String runner, int count) {
-		// TODO: support negative count, and undeploy
-		for (int i = 0; i < count; i++) {
-			this.deployRunner(runner);
+		Assert.isTrue(this.runnerResources.containsKey(runner), "no such runner: " + runner);
+		RunnerPool pool = this.runnerPools.get(runner);
+		if (count < 0) {
+			int removed;
+			if (pool != null) {
+				int previousSize = pool.getSize();
+				pool.resize(count);
+				saveSize(pool);
+				int surplus = pool.trim();
+				List<String> idle = idleInstances(runner);
+				int undeployed = undeploy(idle, surplus);
+				// idle instances not found, e.g. while their stats lag, stay counted as idle
+				pool.adopt(surplus - undeployed);
+				removed = previousSize - pool.getSize();
+			}
+			else {
+				List<String> instances = instancesOf(runner);
+				int keep = hasActiveBinding(runner) ? 1 : 0;
+				removed = undeploy(instances, Math.min(-count, instances.size() - keep));
+			}
+			return String.format("decremented pool for runner %s by %d\n", runner, removed);
+		}
+		if (pool != null) {
+			pool.resize(count);
+			saveSize(pool);
+			refill(pool);
+		}
+		else {
+			for (int i = 0; i < count; i++) {
+				this.deployRunner(runner);
+			}
 		}
 		return String.format("incremented pool for runner %s by %d\n", runner, count);
 	}
 
+	private void saveSize(RunnerPool pool) {
+		Runner registered = this.runnerRepository.get(pool.getRunner());
+		this.runnerRepository.save(new Runner(pool.getRunner(), registered.getLocation(), false, pool.getSize()));
+	}
+
+	/**
+	 * Undeploy up to {@code count} of the instances, newest first.
+	 * @return the number undeployed
+	 */
+	private int undeploy(List<String> instances, int count) {
+		instances.sort(Comparator.comparingInt((String instance) -> instanceIndex(instance)).reversed());
+		int undeployed = 0;
+		for (int i = 0; i < instances.size() && undeployed < count; i++) {
+			if (this.instanceDeployments.containsKey(instances.get(i))) {
+				this.undeployInstance(instances.get(i));
+				undeployed++;
+			}
+		}
+		return undeployed;
+	}
+
+	/**
+	 * @return the runner's instances that report no binding
+	 */
+	private List<String> idleInstances(String runner) {
+		Set<String> busy = new HashSet<>();
+		for (Binding binding : this.bindingRepository.findByRunner(runner)) {
+			busy.addAll(this.runnerStats.getInstances(binding.getName()));
+		}
+		List<String> idle = instancesOf(runner);
+		idle.removeAll(busy);
+		return idle;
+	}
+
+	private List<String> instancesOf(String runner) {
+		List<String> instances = new ArrayList<>();
+		for (String instance : this.instanceDeployments.keySet()) {
+			if (isInstanceOf(runner, instance)) {
+				instances.add(instance);
+			}
+		}
+		return instances;
+	}
+
+	/**
+	 * @return whether this member launched the instance for the runner
+	 */
+	private boolean isInstanceOf(String runner, String instance) {
+		String prefix = instancePrefix(runner);
+		return instance.startsWith(prefix) && instance.substring(prefix.length()).matches("\\d+");
+	}
+
+	/**
+	 * The members of a cluster each launch instances of every runner, so in a cluster
+	 * the names include the member id to keep them apart in the runner stats.
+	 */
+	private String instancePrefix(String runner) {
+		return this.cluster.isEnabled() ? runner + "-" + this.cluster.getMemberId() + "-" : runner + "-";
+	}
+
+	/**
+	 * Every member keeps its own pools, so in a cluster each member talks to its own
+	 * instances through a destination of its own; otherwise an idle instance launched
+	 * by one member could claim a deployment requested by another.
+	 */
+	private String bootstrapDestination(String runner) {
+		return this.cluster.isEnabled() ? RUNNER_CHANNEL_PREFIX + runner + "-" + this.cluster.getMemberId()
+				: RUNNER_CHANNEL_PREFIX + runner;
+	}
+
+	private static int instanceIndex(String instance) {
+		return Integer.parseInt(instance.substring(instance.lastIndexOf('-') + 1));
+	}
+
+	private boolean hasActiveBinding(String runner) {
+		for (Binding binding : this.bindingRepository.findByRunner(runner)) {
+			if (isActive(binding.getName())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	public String scaleBindingPool(String bindingName, int count) {
-		Binding binding = this.bindingRepository.get(bindingName);
+		final Binding binding = this.bindingRepository.get(bindingName);
 		Assert.notNull(binding, "no such binding: " + bindingName);
-		for (int i = 0; i < count; i++) {
-			this.deployRunner(binding.getRunner());
-			this.deployBinding(binding);
+		if (count < 0) {
+			Assert.isTrue(!this.sharedRunners.contains(binding.getRunner()),
+					"cannot scale down binding " + bindingName + " on shared runner " + binding.getRunner());
+			List<String> instances = this.runnerStats.getInstances(bindingName);
+			int removed = Math.min(-count, instances.size());
+			for (int i = 0; i < removed; i++) {
+				this.undeployInstance(instances.get(i));
+			}
+			return String.format("decremented pool for binding %s by %d\n", bindingName, removed);
 		}
-		return String.format("incremented pool for binding %s by %d\n", bindingName, count);
+		// no more than the autoscaler would run
+		count = Math.min(count, this.maxInstances - this.runnerStats.getInstances(bindingName).size());
+		int added = 0;
+		if (count > 0 && !isActive(bindingName)) {
+			// the first instance activates the binding, as a message on its topic would
+			enqueue(binding);
+			unmonitorIfActive(binding.getInput());
+			added++;
+		}
+		for (; added < count; added++) {
+			this.deploymentExecutor.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					// a binding deactivated in the meantime does not get instances back
+					if (!isActive(binding.getName())) {
+						return;
+					}
+					try {
+						activate(binding);
+					}
+					catch (RuntimeException e) {
+						logger.error("failed to add an instance for binding " + binding.getName(), e);
+					}
+				}
+			});
+		}
+		return String.format("incremented pool for binding %s by %d\n", bindingName, Math.max(count, 0));
 	}
 
 	public void deployRunner(String runner, String location) {
-		Resource resource = this.resourceLoader.getResource(location);
-		this.runnerResources.put(runner, resource);
-		this.deployRunner(runner);
+		this.deployRunner(runner, location, false, null);
+	}
+
+	/**
+	 * Register and launch a runner. A shared runner hosts every binding deployed to it
+	 * in the same JVM, so new bindings only need a runner launched if none is running.
+	 * Otherwise a pool of {@code poolSize} idle instances is booted in the background
+	 * and refilled whenever a binding claims one.
+	 */
+	public void deployRunner(String runner, String location, boolean shared, Integer poolSize) {
+		assertSharedBroker(runner);
+		Runner registration = new Runner(runner, location, shared, poolSize);
+		this.runnerRepository.save(registration);
+		RunnerPool pool = register(registration);
+		if (shared) {
+			this.deployRunner(runner);
+		}
+		else {
+			refill(pool);
+		}
+	}
+
+	/**
+	 * Restore the registered runners after a restart. Instances that the app deployer
+	 * still reports as running are adopted rather than launched again, and bindings that
+	 * were active stay active as long as their runner still has instances; any other
+	 * binding is activated again by the first message on its input topic.
+	 */
+	public synchronized void recover() {
+		for (Runner registration : this.runnerRepository.findAll()) {
+			String runner = registration.getName();
+			RunnerPool pool = register(registration);
+			List<String> deploymentIds = this.runnerDeployments.computeIfAbsent(runner,
+					r -> new CopyOnWriteArrayList<String>());
+			int nextIndex = 0;
+			for (Map.Entry<String, String> entry : this.runnerRepository.findInstances(runner).entrySet()) {
+				String instance = entry.getKey();
+				String deploymentId = entry.getValue();
+				if (!isInstanceOf(runner, instance)) {
+					// launched under another member id, so nothing sends to its destination
+					logger.info("undeploying instance " + instance + " launched under another member id");
+					undeployRecovered(instance, deploymentId);
+					continue;
+				}
+				nextIndex = Math.max(nextIndex, instanceIndex(instance) + 1);
+				DeploymentState state;
+				try {
+					state = this.appDeployer.status(deploymentId).getState();
+				}
+				catch (RuntimeException e) {
+					state = DeploymentState.unknown;
+				}
+				if (state == DeploymentState.deployed || state == DeploymentState.deploying) {
+					deploymentIds.add(deploymentId);
+					this.instanceDeployments.put(instance, deploymentId);
+				}
+				else {
+					this.runnerRepository.deleteInstance(instance);
+				}
+			}
+			this.runnerIndexes.put(runner, new AtomicInteger(nextIndex));
+		}
+		for (String bindingName : this.runnerRepository.findActivations()) {
+			Binding binding = this.bindingRepository.get(bindingName);
+			if (binding != null && isRunning(binding.getRunner())) {
+				this.bindingStates.put(bindingName, BindingState.RUNNING);
+				registerBindingGauge(bindingName);
+			}
+			else {
+				this.runnerRepository.deleteActivation(bindingName);
+			}
+		}
+		for (RunnerPool pool : this.runnerPools.values()) {
+			// adopted instances beyond one per active binding are taken to be idle
+			int active = 0;
+			for (Binding binding : this.bindingRepository.findByRunner(pool.getRunner())) {
+				if (isActive(binding.getName())) {
+					active++;
+				}
+			}
+			pool.adopt(Math.max(0, countDeployments(pool.getRunner()) - active));
+			refill(pool);
+		}
+		logger.info("recovered " + this.runnerPools.size() + " runner pools, " + this.instanceDeployments.size()
+				+ " instances and " + this.bindingStates.size() + " active bindings");
+	}
+
+	private void undeployRecovered(String instance, String deploymentId) {
+		try {
+			this.appDeployer.undeploy(deploymentId);
+		}
+		catch (RuntimeException e) {
+			logger.warn("failed to undeploy " + deploymentId, e);
+		}
+		this.runnerRepository.deleteInstance(instance);
+	}
+
+	private void assertSharedBroker(String runner) {
+		if (!this.brokerAdmin.isShared()) {
+			// a launched runner would bind to its own empty broker and never see a message
+			throw new IllegalStateException("cannot launch runner '" + runner
+					+ "': the default binder is in-process, use a broker such as RabbitMQ to deploy runners");
+		}
+	}
+
+	private RunnerPool register(Runner registration) {
+		final String runner = registration.getName();
+		this.runnerResources.put(runner, this.resourceLoader.getResource(registration.getLocation()));
+		Gauge.builder("leaf.runner.instances", this, d -> d.countDeployments(runner))
+				.tag("runner", runner)
+				.register(this.meterRegistry);
+		if (registration.isShared()) {
+			this.sharedRunners.add(runner);
+			return null;
+		}
+		Integer poolSize = registration.getPoolSize();
+		RunnerPool pool = new RunnerPool(runner, (poolSize != null) ? poolSize : this.defaultPoolSize);
+		this.runnerPools.put(runner, pool);
+		return pool;
 	}
 
-	public void deployRunner(String runner) {
+	public String deployRunner(String runner) {
+		assertSharedBroker(runner);
 		Resource resource = this.runnerResources.get(runner);
 		Map<String, String> properties = new HashMap<>();
 		properties.put("spring.cloud.deployer.group", "runner");
-		properties.put("spring.cloud.stream.bindings.input.destination", "runner-" + runner);
+		properties.put("spring.cloud.stream.bindings.input.destination", bootstrapDestination(runner));
 		properties.put("spring.cloud.stream.bindings.input.group", "default");
-		this.runnerDeployments.putIfAbsent(runner, new ArrayList<String>());
-		int index = runnerDeployments.get(runner).size();
-		AppDefinition definition = new AppDefinition(runner + "-" + index, properties);
+		if (this.sharedRunners.contains(runner)) {
+			properties.put("spring.cloud.faas.runner.shared", "true");
+		}
+		// instances may be undeployed, so the index is a counter rather than the list size
+		int index = this.runnerIndexes.computeIfAbsent(runner, r -> new AtomicInteger()).getAndIncrement();
+		String instance = instancePrefix(runner) + index;
+		properties.put("spring.cloud.faas.runner.instance", instance);
+		AppDefinition definition = new AppDefinition(instance, properties);
 		AppDeploymentRequest appDeploymentRequest = new AppDeploymentRequest(definition, resource);
-		String deploymentId = this.appDeployer.deploy(appDeploymentRequest);
-		this.runnerDeployments.get(runner).add(deploymentId);
+		String deploymentId;
+		acquireAppDeployer();
+		try {
+			long start = System.nanoTime();
+			deploymentId = this.appDeployer.deploy(appDeploymentRequest);
+			this.meterRegistry.timer("leaf.deployer.deploy", "runner", runner)
+					.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		}
+		finally {
+			this.appDeployerPermits.release();
+		}
+		this.runnerDeployments.computeIfAbsent(runner, r -> new CopyOnWriteArrayList<String>()).add(deploymentId);
+		this.instanceDeployments.put(instance, deploymentId);
+		this.runnerRepository.saveInstance(runner, instance, deploymentId);
+		return deploymentId;
+	}
+
+	/**
+	 * Undeploy a single runner instance, identified by the name it reports its stats under.
+	 * An instance launched by another member of the cluster is undeployed by that member.
+	 */
+	public void undeployInstance(String instance) {
+		if (!undeployLocalInstance(instance) && this.cluster.isEnabled()) {
+			this.cluster.publish(UNDEPLOYS, Collections.singletonMap("instance", instance));
+			this.runnerStats.remove(instance);
+		}
+	}
+
+	/**
+	 * @return whether the instance was launched by this member
+	 */
+	private boolean undeployLocalInstance(String instance) {
+		// only the caller that removes the instance undeploys it
+		String deploymentId = this.instanceDeployments.remove(instance);
+		if (deploymentId == null) {
+			return false;
+		}
+		acquireAppDeployer();
+		try {
+			this.appDeployer.undeploy(deploymentId);
+		}
+		finally {
+			this.appDeployerPermits.release();
+		}
+		this.runnerRepository.deleteInstance(instance);
+		for (List<String> deploymentIds : this.runnerDeployments.values()) {
+			deploymentIds.remove(deploymentId);
+		}
+		this.runnerStats.remove(instance);
+		return true;
+	}
+
+	/**
+	 * Undeploy every runner instance serving the binding and forget that it was
+	 * activated, so the next message on its input topic activates it again. A shared
+	 * runner hosts other bindings too, so it is only told to stop hosting this one.
+	 */
+	public void deactivate(String bindingName) {
+		deactivate(bindingName, this.bindingRepository.get(bindingName));
+	}
+
+	/**
+	 * Replace the runners of an active binding whose definition changed, since they keep
+	 * running the definition they were given.
+	 * @param previous the definition the runners were given
+	 */
+	public void redeploy(Binding previous) {
+		deactivate(previous.getName(), previous);
+		Binding binding = this.bindingRepository.get(previous.getName());
+		if (binding != null) {
+			deployIfNecessary(binding.getInput());
+		}
+	}
+
+	private void deactivate(String bindingName, Binding deployed) {
+		if (deployed != null && this.sharedRunners.contains(deployed.getRunner())) {
+			undeployBinding(deployed);
+			this.runnerStats.removeBinding(bindingName);
+		}
+		else {
+			for (String instance : this.runnerStats.getInstances(bindingName)) {
+				this.undeployInstance(instance);
+			}
+		}
+		this.bindingStates.remove(bindingName);
+		this.runnerRepository.deleteActivation(bindingName);
+		Binding binding = this.bindingRepository.get(bindingName);
+		if (binding != null && this.monitorBinder != null) {
+			this.monitor(binding.getInput(), this.monitorBinder);
+		}
+	}
+
+	/**
+	 * Take over a binding that another member of the cluster activated, whose instances
+	 * are still running, so it is not activated a second time.
+	 */
+	public void adopt(String bindingName) {
+		this.bindingStates.put(bindingName, BindingState.RUNNING);
+		this.runnerRepository.saveActivation(bindingName);
+		registerBindingGauge(bindingName);
+	}
+
+	/**
+	 * Hand a binding over to the member of the cluster that now owns it. Its instances
+	 * keep running for the new owner to adopt, and the topic is no longer monitored here
+	 * unless another binding on it still needs this member to activate it.
+	 */
+	public void release(String bindingName) {
+		this.bindingStates.remove(bindingName);
+		this.runnerRepository.deleteActivation(bindingName);
+		Binding binding = this.bindingRepository.get(bindingName);
+		if (binding != null) {
+			this.unmonitorIfActive(binding.getInput());
+		}
+	}
+
+	/**
+	 * @return whether the binding has been activated or is about to be
+	 */
+	public boolean isActive(String bindingName) {
+		BindingState state = this.bindingStates.get(bindingName);
+		return state != null && state != BindingState.FAILED;
+	}
+
+	/**
+	 * @return the state of the binding's activation, or {@code null} if it is inactive
+	 */
+	public BindingState getState(String bindingName) {
+		return this.bindingStates.get(bindingName);
+	}
+
+	public boolean isShared(String runner) {
+		return this.sharedRunners.contains(runner);
+	}
+
+	@Override
+	public void destroy() {
+		this.deploymentExecutor.shutdownNow();
+		this.poolExecutor.shutdownNow();
+	}
+
+	/**
+	 * Hand a binding to a runner: an idle pooled instance if there is one, otherwise a
+	 * newly launched instance.
+	 */
+	private void activate(Binding binding) {
+		String runner = binding.getRunner();
+		if (this.sharedRunners.contains(runner)) {
+			// bindings activated in parallel must not each launch the shared runner
+			synchronized (this.sharedRunnerLocks.computeIfAbsent(runner, r -> new Object())) {
+				if (!isRunning(runner)) {
+					this.deployRunner(runner);
+				}
+			}
+		}
+		else {
+			RunnerPool pool = this.runnerPools.get(runner);
+			if (pool != null && pool.claim()) {
+				this.meterRegistry.counter("leaf.runner.pool.hits", "runner", runner).increment();
+			}
+			else {
+				this.meterRegistry.counter("leaf.runner.pool.misses", "runner", runner).increment();
+				String deploymentId = this.deployRunner(runner);
+				if (pool != null) {
+					watchColdStart(pool, deploymentId, false);
+				}
+			}
+			if (pool != null) {
+				refill(pool);
+			}
+		}
+		this.deployBinding(binding);
+		registerBindingGauge(binding.getName());
+	}
+
+	private void registerBindingGauge(final String bindingName) {
+		Gauge.builder("leaf.binding.instances", this.runnerStats, stats -> stats.getInstances(bindingName).size())
+				.tag("binding", bindingName)
+				.register(this.meterRegistry);
+	}
+
+	private void refill(RunnerPool pool) {
+		int needed = pool.reserve();
+		for (int i = 0; i < needed; i++) {
+			final RunnerPool target = pool;
+			this.poolExecutor.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						watchColdStart(target, deployRunner(target.getRunner()), true);
+					}
+					catch (RuntimeException e) {
+						logger.error("failed to start pooled runner: " + target.getRunner(), e);
+						target.failed();
+					}
+				}
+			});
+		}
+	}
+
+	private void watchColdStart(final RunnerPool pool, final String deploymentId, final boolean pooled) {
+		final long start = System.currentTimeMillis();
+		this.poolExecutor.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				DeploymentState state;
+				try {
+					state = appDeployer.status(deploymentId).getState();
+				}
+				catch (RuntimeException e) {
+					logger.warn("failed to get the status of runner " + deploymentId, e);
+					state = DeploymentState.unknown;
+				}
+				long elapsed = System.currentTimeMillis() - start;
+				if (state == DeploymentState.deployed) {
+					meterRegistry.timer("leaf.runner.cold.start", "runner", pool.getRunner(), "pooled", String.valueOf(pooled))
+							.record(elapsed, TimeUnit.MILLISECONDS);
+					if (pooled) {
+						pool.started(elapsed);
+					}
+					else {
+						pool.recordColdStart(elapsed);
+					}
+				}
+				else if (state != DeploymentState.failed && elapsed < COLD_START_TIMEOUT_MILLIS
+						&& !poolExecutor.isShutdown()) {
+					poolExecutor.schedule(this, COLD_START_POLL_MILLIS, TimeUnit.MILLISECONDS);
+				}
+				else {
+					logger.warn("runner " + deploymentId + " did not start, state: " + state);
+					if (pooled) {
+						pool.failed();
+					}
+				}
+			}
+		});
+	}
+
+	private MessageChannel bootstrapChannel(String runner) {
+		return this.bootstrapChannels.computeIfAbsent(runner,
+				r -> this.channelResolver.resolveDestination(bootstrapDestination(r)));
+	}
+
+	/**
+	 * Tell the runner hosting the binding to stop and remove its function. The binding
+	 * may have been activated by another member, whose shared runner hosts it.
+	 */
+	private void undeployBinding(Binding binding) {
+		if (isRunning(binding.getRunner())) {
+			sendUndeployBinding(binding.getName(), binding.getRunner());
+		}
+		if (this.cluster.isEnabled()) {
+			Map<String, String> undeployRequest = new HashMap<>();
+			undeployRequest.put("binding", binding.getName());
+			undeployRequest.put("runner", binding.getRunner());
+			this.cluster.publish(UNDEPLOYS, undeployRequest);
+		}
+	}
+
+	private void sendUndeployBinding(String bindingName, String runner) {
+		Map<String, String> undeployRequest = new HashMap<>();
+		undeployRequest.put("action", "undeploy");
+		undeployRequest.put("name", bindingName);
+		bootstrapChannel(runner).send(MessageBuilder.withPayload(undeployRequest).build());
 	}
 
 	private void deployBinding(Binding binding) {
-		MessageChannel channel = this.bootstrapChannels.get(binding.getName());
-		if (channel == null) {
-			channel = this.channelResolver.resolveDestination(RUNNER_CHANNEL_PREFIX + binding.getRunner());
-			this.bootstrapChannels.put(binding.getName(), channel);
+		MessageChannel channel = bootstrapChannel(binding.getRunner());
+		String[] stages = binding.getStages();
+		String[] resources = new String[stages.length];
+		for (int i = 0; i < stages.length; i++) {
+			resources[i] = this.registryUrl + "/registry/" + stages[i];
 		}
-		// TODO: get from registry
-		String resource = "file:///tmp/function-repo/" + binding.getFunction();
 		Map<String, String> functionDeploymentRequest = new HashMap<>();
-		functionDeploymentRequest.put("function", resource);
+		functionDeploymentRequest.put("name", binding.getName());
+		// a fused pipeline sends one location and one hash per stage
+		functionDeploymentRequest.put("function", StringUtils.arrayToCommaDelimitedString(resources));
+		String functionHash = (binding.getVersion() != null) ? binding.getVersion() : this.registry.hash(stages);
+		if (functionHash != null) {
+			functionDeploymentRequest.put("functionHash", functionHash);
+		}
 		functionDeploymentRequest.put("input", binding.getInput());
 		if (binding.getOutput() != null) {
 			functionDeploymentRequest.put("output", binding.getOutput());
 		}
+		if (binding.isStreaming()) {
+			functionDeploymentRequest.put("streaming", "true");
+		}
+		else if (binding.getBatchSize() > 1) {
+			functionDeploymentRequest.put("batchSize", String.valueOf(binding.getBatchSize()));
+			functionDeploymentRequest.put("batchTimeout", String.valueOf(binding.getBatchTimeout()));
+		}
+		functionDeploymentRequest.put("concurrency", String.valueOf(binding.getConcurrency()));
+		if (binding.getPrefetch() != null) {
+			functionDeploymentRequest.put("prefetch", String.valueOf(binding.getPrefetch()));
+		}
+		if (binding.getMaxInFlight() != null) {
+			functionDeploymentRequest.put("maxInFlight", String.valueOf(binding.getMaxInFlight()));
+		}
+		if (binding.getContentType() != null) {
+			functionDeploymentRequest.put("contentType", binding.getContentType());
+		}
 		channel.send(MessageBuilder.withPayload(functionDeploymentRequest).build());
-		this.seen.add(binding.getName());
 	}
 
+	/**
+	 * Watch the topic for the first message that should activate its bindings. The
+	 * monitor uses an anonymous, auto-acknowledged queue, so nothing accumulates on the
+	 * broker while it is unbound, and it is only bound while at least one binding on the
+	 * topic is inactive. Calling this for a topic that is already monitored is a no-op.
+	 */
 	@SuppressWarnings({ "unchecked", "rawtypes" })
-	public void monitor(final String topic, Binder binder) {
+	public synchronized void monitor(final String topic, Binder binder) {
+		this.monitorBinder = binder;
+		if (this.monitorBindings.containsKey(topic)) {
+			return;
+		}
 		DirectChannel channel = new DirectChannel();
-		this.monitorChannels.put(topic, channel);
 		channel.subscribe(new MessageHandler() {
 			
 			@Override
@@ -157,17 +869,143 @@ public class Deployer {
 				deployIfNecessary(topic);
 			}
 		});
-		binder.bindConsumer(topic, "leaf-monitor", channel,
-				new ExtendedConsumerProperties<RabbitConsumerProperties>(new RabbitConsumerProperties()));
+		ExtendedConsumerProperties<RabbitConsumerProperties> consumerProperties =
+				new ExtendedConsumerProperties<RabbitConsumerProperties>(new RabbitConsumerProperties());
+		consumerProperties.getExtension().setAcknowledgeMode(AcknowledgeMode.NONE);
+		this.monitorBindings.put(topic, binder.bindConsumer(topic, null, channel, consumerProperties));
 	}
 
-	private void deployIfNecessary(String topic) {
+	/**
+	 * Queue the activation of every inactive binding on the topic that this member owns.
+	 * Returns without waiting for any deployment.
+	 */
+	void deployIfNecessary(String topic) {
 		Set<Binding> bindings = this.bindingRepository.findByInput(topic);
 		for (Binding binding : bindings) {
-			if (!this.seen.contains(binding.getName())) {
-				this.deployRunner(binding.getRunner());
-				this.deployBinding(binding);
+			if (this.cluster.owns(binding.getName())) {
+				enqueue(binding);
+			}
+		}
+		this.unmonitorIfActive(topic);
+	}
+
+	/**
+	 * Move an inactive or failed binding to {@link BindingState#PENDING} and queue its
+	 * activation. Only the caller that makes the transition queues it, so concurrent
+	 * messages on the same topic activate the binding once.
+	 */
+	private void enqueue(final Binding binding) {
+		final String name = binding.getName();
+		BindingState state = this.bindingStates.get(name);
+		if (state == null) {
+			if (this.bindingStates.putIfAbsent(name, BindingState.PENDING) != null) {
+				return;
 			}
 		}
+		else if (state != BindingState.FAILED
+				|| !this.bindingStates.replace(name, BindingState.FAILED, BindingState.PENDING)) {
+			return;
+		}
+		this.deploymentExecutor.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				deploy(binding);
+			}
+		});
+	}
+
+	private void deploy(Binding binding) {
+		String name = binding.getName();
+		// a binding released or deactivated while it was queued is left alone
+		if (!this.bindingStates.replace(name, BindingState.PENDING, BindingState.DEPLOYING)) {
+			return;
+		}
+		try {
+			activate(binding);
+		}
+		catch (RuntimeException e) {
+			logger.error("failed to activate binding " + name, e);
+			this.meterRegistry.counter("leaf.deployer.failures").increment();
+			if (this.bindingStates.replace(name, BindingState.DEPLOYING, BindingState.FAILED)
+					&& this.monitorBinder != null) {
+				// the topic was unmonitored when the binding was queued
+				this.monitor(binding.getInput(), this.monitorBinder);
+			}
+			return;
+		}
+		if (this.bindingStates.replace(name, BindingState.DEPLOYING, BindingState.RUNNING)) {
+			this.runnerRepository.saveActivation(name);
+		}
+	}
+
+	/**
+	 * Once every binding on the topic that this member owns is active the runners
+	 * consume from it directly, so the monitor would only be doing per-message work for
+	 * nothing. The unbind is handed off because this is usually called on the monitor's
+	 * own listener thread.
+	 */
+	private synchronized void unmonitorIfActive(String topic) {
+		for (Binding binding : this.bindingRepository.findByInput(topic)) {
+			if (!isActive(binding.getName()) && this.cluster.owns(binding.getName())) {
+				return;
+			}
+		}
+		final org.springframework.cloud.stream.binder.Binding<MessageChannel> monitorBinding =
+				this.monitorBindings.remove(topic);
+		if (monitorBinding != null) {
+			this.poolExecutor.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					monitorBinding.unbind();
+				}
+			});
+		}
+	}
+
+	private void acquireAppDeployer() {
+		try {
+			this.appDeployerPermits.acquire();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("interrupted waiting to call the app deployer", e);
+		}
+	}
+
+	private boolean isRunning(String runner) {
+		return countDeployments(runner) > 0;
+	}
+
+	private int countDeployments(String runner) {
+		List<String> deploymentIds = this.runnerDeployments.get(runner);
+		return (deploymentIds != null) ? deploymentIds.size() : 0;
+	}
+
+	/**
+	 * The activation of a binding on this member.
+	 */
+	public enum BindingState {
+
+		/**
+		 * A message arrived and the activation is queued.
+		 */
+		PENDING,
+
+		/**
+		 * A runner is being claimed or launched and the binding handed to it.
+		 */
+		DEPLOYING,
+
+		/**
+		 * The binding has been handed to a runner.
+		 */
+		RUNNING,
+
+		/**
+		 * The last activation failed; the next message retries it.
+		 */
+		FAILED
 	}
 }
@@ -16,40 +16,67 @@
 
 package io.spring.leaf.controller;
 
-import java.lang.reflect.Field;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.SortedSet;
-import java.util.TreeSet;
-import java.util.concurrent.atomic.AtomicReference;
 
+import javax.servlet.http.HttpServletRequest;
+
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.cloud.stream.binder.Binder;
-import org.springframework.cloud.stream.binder.BinderFactory;
-import org.springframework.cloud.stream.binder.ExtendedConsumerProperties;
-import org.springframework.cloud.stream.binder.rabbit.properties.RabbitConsumerProperties;
-import org.springframework.cloud.stream.provisioning.ProvisioningProvider;
-import org.springframework.messaging.MessageChannel;
-import org.springframework.util.ReflectionUtils;
-import org.springframework.util.ReflectionUtils.FieldCallback;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 import io.spring.leaf.controller.repository.BindingRepository;
+import io.spring.leaf.controller.repository.RunnerRepository;
 
 /**
  * @author Mark Fisher
  */
 @RestController
-public class FunctionController {
+public class FunctionController implements InitializingBean {
+
+	private static final String BINDINGS = "bindings";
+
+	private static final String RUNNERS = "runners";
+
+	private static final int PUBLISH_CHUNK_SIZE = 100;
 
 	@Autowired
 	private BindingRepository repository;
 
+	@Autowired
+	private RunnerRepository runnerRepository;
+
 	@Autowired
 	private FunctionGateway gateway;
 
@@ -60,7 +87,95 @@ public class FunctionController {
 	private Deployer deployer;
 
 	@Autowired
-	private BinderFactory binderFactory;
+	private BrokerAdmin brokerAdmin;
+
+	@Autowired
+	private Autoscaler autoscaler;
+
+	@Autowired
+	private IdleBindingEvictor idleBindingEvictor;
+
+	@Autowired
+	private RunnerStatsCollector runnerStats;
+
+	@Autowired
+	private Cluster cluster;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Override
+	public void afterPropertiesSet() {
+		this.cluster.register(BINDINGS, new Cluster.ReplicatedState() {
+
+			@Override
+			public Collection<Map<String, String>> entries() {
+				List<Map<String, String>> entries = new ArrayList<>();
+				for (String name : repository.names()) {
+					Binding binding = repository.get(name);
+					if (binding != null) {
+						entries.add(binding.toProperties());
+					}
+				}
+				return entries;
+			}
+
+			@Override
+			public Collection<String> keys() {
+				return repository.names();
+			}
+
+			@Override
+			public void put(Map<String, String> entry) {
+				save(Binding.fromProperties(entry));
+			}
+
+			@Override
+			public void remove(String key) {
+				repository.delete(key);
+			}
+		});
+		this.cluster.register(RUNNERS, new Cluster.ReplicatedState() {
+
+			@Override
+			public Collection<Map<String, String>> entries() {
+				List<Map<String, String>> entries = new ArrayList<>();
+				for (Runner runner : runnerRepository.findAll()) {
+					entries.add(runner.toProperties());
+				}
+				return entries;
+			}
+
+			@Override
+			public Collection<String> keys() {
+				return Collections.emptySet();
+			}
+
+			@Override
+			public void put(Map<String, String> entry) {
+				// every member keeps pools of its own for the bindings it owns
+				Runner runner = Runner.fromProperties(entry);
+				if (runnerRepository.get(runner.getName()) == null) {
+					deployer.deployRunner(runner.getName(), runner.getLocation(), runner.isShared(),
+							runner.getPoolSize());
+				}
+			}
+
+			@Override
+			public void remove(String key) {
+			}
+		});
+	}
+
+	@GetMapping("/cluster")
+	public String listMembers() {
+		List<String> members = new ArrayList<>();
+		for (Map.Entry<String, String> member : this.cluster.getMembers().entrySet()) {
+			members.add(String.format("{\"id\":\"%s\",\"url\":\"%s\",\"local\":%b}", member.getKey(),
+					member.getValue(), member.getKey().equals(this.cluster.getMemberId())));
+		}
+		return "[" + StringUtils.collectionToCommaDelimitedString(members) + "]\n";
+	}
 
 	@GetMapping("/runners")
 	public String listRunners() {
@@ -73,18 +188,40 @@ public class FunctionController {
 	}
 
 	@PostMapping("/runners/{name}")
-	public void createRunner(@PathVariable String name, @RequestBody String location) {
-		this.deployer.deployRunner(name, location);
+	public void createRunner(@PathVariable String name, @RequestBody String location,
+			@RequestParam(defaultValue = "false") boolean shared, @RequestParam(required = false) Integer pool) {
+		this.deployer.deployRunner(name, location, shared, pool);
+		this.cluster.publish(RUNNERS, new Runner(name, location, shared, pool).toProperties());
+	}
+
+	@GetMapping("/pools/runner/{name}")
+	public String runnerPool(@PathVariable String name) {
+		return this.deployer.getRunnerPool(name);
 	}
 
 	@PostMapping(value="/pools/runner/{name}/{count}") // todo: accept JSON body
-	public String scaleRunnerPool(@PathVariable String runner, @PathVariable int count) {
+	public String scaleRunnerPool(@PathVariable("name") String runner, @PathVariable int count) {
 		return this.deployer.scaleRunnerPool(runner, count);
 	}
 
+	/**
+	 * Scale a binding's instances. In a cluster only the binding's owner deploys for it,
+	 * so other members redirect the request there.
+	 */
 	@PostMapping(value="/pools/binding/{name}/{count}") // todo: accept JSON body
-	public String scaleBindingPool(@PathVariable String bindingName, @PathVariable int count) {
-		return this.deployer.scaleBindingPool(bindingName, count);
+	public ResponseEntity<String> scaleBindingPool(@PathVariable("name") String bindingName, @PathVariable int count) {
+		if (!this.cluster.owns(bindingName)) {
+			String owner = this.cluster.getOwnerUrl(bindingName);
+			return ResponseEntity.status(HttpStatus.TEMPORARY_REDIRECT)
+					.location(URI.create(owner + "/pools/binding/" + bindingName + "/" + count)).build();
+		}
+		Binding binding = this.repository.get(bindingName);
+		if (count < 0 && binding != null && this.deployer.isShared(binding.getRunner())) {
+			// its instances host the runner's other bindings too
+			return ResponseEntity.badRequest().body("binding " + bindingName + " runs on shared runner "
+					+ binding.getRunner() + ", scale the runner instead\n");
+		}
+		return ResponseEntity.ok(this.deployer.scaleBindingPool(bindingName, count));
 	}
 
 	@GetMapping("/functions")
@@ -93,8 +230,9 @@ public class FunctionController {
 	}
 
 	@PostMapping("/functions/{name}")
-	public void registerFunction(@PathVariable String name, @RequestBody String code) {
-		this.registry.compile(name, code);
+	public void registerFunction(@PathVariable String name, @RequestBody String code,
+			@RequestParam(required = false) String inputType, @RequestParam(required = false) String outputType) {
+		this.registry.compile(name, code, inputType, outputType);
 	}
 
 	@GetMapping("/bindings")
@@ -107,9 +245,23 @@ public class FunctionController {
 		return this.repository.get(name).toString();
 	}
 
+	/**
+	 * @return whether the binding is inactive, or pending, deploying, running or failed
+	 */
+	@GetMapping("/bindings/{name}/state")
+	public String getBindingState(@PathVariable String name) {
+		Deployer.BindingState state = this.deployer.getState(name);
+		return ((state != null) ? state.name().toLowerCase() : "inactive") + "\n";
+	}
+
 	@PostMapping("/bindings/{name}") // TODO: pass JSON body instead of params
 	public void createBinding(@PathVariable String name, @RequestParam String function, @RequestParam String runner,
-			@RequestParam(required = false) String input, @RequestParam(required = false) String output, @RequestBody String code) {
+			@RequestParam(required = false) String input, @RequestParam(required = false) String output,
+			@RequestParam(defaultValue = "false") boolean streaming, @RequestParam(required = false) String version,
+			@RequestParam(defaultValue = "1") int batchSize, @RequestParam(defaultValue = "100") long batchTimeout,
+			@RequestParam(defaultValue = "1") int concurrency, @RequestParam(required = false) Integer prefetch,
+			@RequestParam(required = false) Integer maxInFlight, @RequestParam(required = false) String contentType,
+			@RequestBody String code) {
 		Binding binding = new Binding(name, function, runner);
 		if (input != null) {
 			binding.setInput(input);
@@ -120,56 +272,227 @@ public class FunctionController {
 		if (!StringUtils.isEmpty(output)) {
 			binding.setOutput(output);
 		}
-		this.repository.save(name, binding);
-		this.createTopicForConsumer(binding.getInput(), "default");
+		binding.setStreaming(streaming);
+		binding.setBatchSize(batchSize);
+		binding.setBatchTimeout(batchTimeout);
+		binding.setConcurrency(concurrency);
+		binding.setPrefetch(prefetch);
+		binding.setMaxInFlight(maxInFlight);
+		binding.setContentType(contentType);
+		// pin the version so that every instance runs the same bytecode
+		binding.setVersion((version != null) ? version : this.registry.hash(binding.getStages()));
+		save(binding);
+		this.cluster.publish(BINDINGS, binding.toProperties());
 	}
 
 	@GetMapping("/topics")
 	public Set<String> listTopics() {
-		SortedSet<String> topics = new TreeSet<>();
+		return this.repository.topics();
+	}
+
+	@PostMapping("/events/{topic}")
+	public void publishEvent(@PathVariable String topic, @RequestBody byte[] event,
+			@RequestHeader(value = HttpHeaders.CONTENT_TYPE, required = false) String contentType) {
+		// the body is forwarded as received, so runners decode it with the binding's codec
+		this.gateway.sendEvent(topic, event, contentType);
+	}
+
+	/**
+	 * Publish many events in one request, either as a JSON array or one event per line.
+	 * The body is read as a stream and sent in chunks, so a chunked upload is published
+	 * while it arrives. The response acknowledges the batch once every event has been
+	 * sent. If the body turns out to be malformed, the events before the error have
+	 * already been sent and the response reports how many.
+	 */
+	@PostMapping("/events/{topic}/batch")
+	public ResponseEntity<Map<String, Object>> publishEvents(@PathVariable String topic, HttpServletRequest request)
+			throws IOException {
+		String contentType = request.getContentType();
+		boolean json = contentType != null
+				&& MediaType.APPLICATION_JSON.isCompatibleWith(MediaType.parseMediaType(contentType));
+		EventPublisher publisher = new EventPublisher(topic, contentType);
+		Map<String, Object> result = new LinkedHashMap<>();
+		result.put("topic", topic);
+		try {
+			if (json) {
+				publishJsonArray(publisher, request.getInputStream());
+			}
+			else {
+				publishLines(publisher, request.getInputStream());
+			}
+		}
+		catch (IllegalArgumentException | JsonProcessingException e) {
+			publisher.flush();
+			result.put("published", publisher.getPublished());
+			result.put("error", e.getMessage());
+			return ResponseEntity.badRequest().body(result);
+		}
+		publisher.flush();
+		result.put("published", publisher.getPublished());
+		return ResponseEntity.ok(result);
+	}
+
+	@PostMapping("/requests/{topic}")
+	public DeferredResult<ResponseEntity<byte[]>> publishRequest(@PathVariable String topic,
+			@RequestBody byte[] request,
+			@RequestHeader(value = HttpHeaders.CONTENT_TYPE, required = false) String contentType,
+			@RequestParam(defaultValue = "broker") String reply) {
+		FunctionGateway.ReplyMode replyMode;
+		try {
+			replyMode = FunctionGateway.ReplyMode.valueOf(reply.toUpperCase());
+		}
+		catch (IllegalArgumentException e) {
+			DeferredResult<ResponseEntity<byte[]>> rejected = new DeferredResult<>();
+			rejected.setResult(ResponseEntity.badRequest().contentType(MediaType.TEXT_PLAIN)
+					.body(("unknown reply mode '" + reply + "', expected broker or http\n")
+							.getBytes(StandardCharsets.UTF_8)));
+			return rejected;
+		}
+		return this.gateway.sendRequest(topic, request, contentType, replyMode);
+	}
+
+	@PostMapping("/replies/{id}")
+	public String handleReply(@PathVariable String id, @RequestBody byte[] reply,
+			@RequestHeader(value = HttpHeaders.CONTENT_TYPE, required = false) String contentType) {
+		return this.gateway.handleReply(Long.parseLong(id), reply, contentType);
+	}
+
+	/**
+	 * Restore deployment state from the repositories after a restart, and monitor the
+	 * input topics of any bindings that are not active.
+	 */
+	@EventListener(ApplicationReadyEvent.class)
+	public void recover() {
+		this.deployer.recover();
+		if (this.repository.names().isEmpty()) {
+			return;
+		}
+		Binder<?, ?, ?> binder = this.brokerAdmin.getBinder();
+		for (String topic : this.repository.topics()) {
+			for (Binding binding : this.repository.findByInput(topic)) {
+				if (!this.deployer.isActive(binding.getName()) && this.cluster.owns(binding.getName())) {
+					this.deployer.monitor(topic, binder);
+					break;
+				}
+			}
+		}
+		this.autoscaler.start();
+		this.idleBindingEvictor.start();
+	}
+
+	/**
+	 * Take over the bindings this member now owns and hand over the ones it no longer
+	 * owns. A binding that its previous owner activated is adopted as long as its
+	 * instances still report stats; otherwise its topic is monitored for activation.
+	 */
+	@EventListener(MembershipChangedEvent.class)
+	public void rebalance() {
+		this.runnerStats.start();
 		for (String name : this.repository.names()) {
 			Binding binding = this.repository.get(name);
-			if (binding.getInput() != null) {
-				topics.add(binding.getInput());
+			if (binding == null) {
+				continue;
+			}
+			boolean owned = this.cluster.owns(name);
+			if (owned && !this.deployer.isActive(name)) {
+				if (!this.runnerStats.getInstances(name).isEmpty()) {
+					this.deployer.adopt(name);
+				}
+				else {
+					this.createTopicForConsumer(binding.getInput(), "default");
+				}
 			}
-			if (binding.getOutput() != null) {
-				topics.add(binding.getOutput());
+			else if (!owned && this.deployer.isActive(name)) {
+				this.deployer.release(name);
 			}
 		}
-		return topics;
 	}
-	@PostMapping("/events/{topic}")
-	public void publishEvent(@PathVariable String topic, @RequestBody String event) {
-		this.gateway.sendEvent(topic, event);
+
+	/**
+	 * Store a binding, whether created here or on another member, and if this member
+	 * owns it make sure its topic exists and is monitored.
+	 */
+	private void save(Binding binding) {
+		Binding previous = this.repository.get(binding.getName());
+		this.repository.save(binding.getName(), binding);
+		if (this.cluster.owns(binding.getName())) {
+			this.createTopicForConsumer(binding.getInput(), "default");
+			if (previous != null && this.deployer.isActive(binding.getName())
+					&& !previous.toProperties().equals(binding.toProperties())) {
+				// a new version or definition replaces the function the runners were given
+				this.deployer.redeploy(previous);
+			}
+		}
 	}
 
-	@PostMapping("/requests/{topic}")
-	public String publishRequest(@PathVariable String topic, @RequestBody String request) {
-		return this.gateway.sendRequest(topic, request);
+	private void publishLines(EventPublisher publisher, InputStream body) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+		String line;
+		while ((line = reader.readLine()) != null) {
+			if (!line.isEmpty()) {
+				publisher.add(line);
+			}
+		}
 	}
 
-	@PostMapping("/replies/{id}")
-	public String handleReply(@PathVariable String id, @RequestBody String reply) {
-		return this.gateway.handleReply(Long.parseLong(id), reply);
+	private void publishJsonArray(EventPublisher publisher, InputStream body) throws IOException {
+		JsonParser parser = this.objectMapper.getFactory().createParser(body);
+		if (parser.nextToken() != JsonToken.START_ARRAY) {
+			throw new IllegalArgumentException("expected a JSON array of events");
+		}
+		JsonToken token;
+		while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+			if (token == null) {
+				throw new IllegalArgumentException("unterminated JSON array");
+			}
+			// strings are sent as is, anything else as its JSON text
+			publisher.add((token == JsonToken.VALUE_STRING)
+					? parser.getText() : this.objectMapper.readTree(parser).toString());
+		}
 	}
 
-	@SuppressWarnings({ "rawtypes", "unchecked" })
 	private void createTopicForConsumer(String topic, String group) {
-		Binder binder = this.binderFactory.getBinder("rabbit", MessageChannel.class);
-		final AtomicReference<Field> provisionerField = new AtomicReference<>();
-		ReflectionUtils.doWithFields(binder.getClass(), new FieldCallback() {
+		this.brokerAdmin.provisionConsumerDestination(topic, group);
+		this.deployer.monitor(topic, this.brokerAdmin.getBinder());
+		this.autoscaler.start();
+		this.idleBindingEvictor.start();
+	}
 
-			@Override
-			public void doWith(Field field) throws IllegalArgumentException, IllegalAccessException {
-				if (ProvisioningProvider.class.isAssignableFrom(field.getType())) {
-					field.setAccessible(true);
-					provisionerField.set(field);
-				}
+	/**
+	 * Collects the events of a batch request and sends them to the gateway in chunks.
+	 */
+	private class EventPublisher {
+
+		private final String topic;
+
+		private final String contentType;
+
+		private final List<String> chunk = new ArrayList<>(PUBLISH_CHUNK_SIZE);
+
+		private long published;
+
+		EventPublisher(String topic, String contentType) {
+			this.topic = topic;
+			this.contentType = contentType;
+		}
+
+		void add(String event) {
+			this.chunk.add(event);
+			if (this.chunk.size() == PUBLISH_CHUNK_SIZE) {
+				flush();
 			}
-		});
-		ProvisioningProvider provisioner = (ProvisioningProvider) ReflectionUtils.getField(provisionerField.get(), binder);
-		provisioner.provisionConsumerDestination(topic, group,
-				new ExtendedConsumerProperties<RabbitConsumerProperties>(new RabbitConsumerProperties()));
-		this.deployer.monitor(topic, binder);
+		}
+
+		void flush() {
+			if (!this.chunk.isEmpty()) {
+				gateway.sendEvents(this.topic, this.chunk, this.contentType);
+				this.published += this.chunk.size();
+				this.chunk.clear();
+			}
+		}
+
+		long getPublished() {
+			return this.published;
+		}
 	}
 }
@@ -16,70 +16,323 @@
 
 package io.spring.leaf.controller;
 
-import java.util.HashMap;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Map;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cloud.stream.annotation.EnableBinding;
+import org.springframework.cloud.stream.binder.Binder;
+import org.springframework.cloud.stream.binder.BinderFactory;
+import org.springframework.cloud.stream.binder.ExtendedConsumerProperties;
+import org.springframework.cloud.stream.binder.rabbit.properties.RabbitConsumerProperties;
 import org.springframework.cloud.stream.binding.BinderAwareChannelResolver;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.integration.channel.DirectChannel;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.MessagingException;
 import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 
 /**
+ * Requests are correlated with replies through a concurrent map of pending
+ * {@link DeferredResult}s, so an in-flight request holds no thread while it waits.
+ * Request and reply bodies are passed through as bytes with their content type, so a
+ * runner decodes a request with its binding's codec and its reply reaches the client
+ * as the runner encoded it.
+ * By default runners publish replies to a reply topic owned by this gateway; the HTTP
+ * callback to {@code /replies/{id}} remains available per request. Both lead back to
+ * this controller instance, so in a cluster a reply reaches the member that is waiting
+ * for it.
+ *
  * @author Mark Fisher
  */
 @EnableBinding
-public class FunctionGateway {
+public class FunctionGateway implements DisposableBean {
+
+	private static final long SWEEP_INTERVAL_MILLIS = 1000;
 
 	@Autowired
 	private BinderAwareChannelResolver resolver;
 
-	private AtomicLong counter = new AtomicLong();
+	@Autowired
+	private BinderFactory binderFactory;
 
-	private Map<Long, ArrayBlockingQueue<String>> replies = new HashMap<>();
+	@Value("${leaf.gateway.reply-timeout:10000}")
+	private long replyTimeout = 10000;
 
-	public String sendRequest(String topic, String message) {
-		ArrayBlockingQueue<String> replyHolder = new ArrayBlockingQueue<String>(1);
-		long id = this.counter.incrementAndGet(); 
-		this.replies.put(id, replyHolder);
-		Message<?> requestMessage = MessageBuilder.withPayload(message)
-				.setHeader("gatewayReplyTo", "http://localhost:5323/replies/" + id)
-				.build();
-		sendMessage(topic, requestMessage);
-		try {
-			String reply = replyHolder.poll(10, TimeUnit.SECONDS);
-			this.replies.remove(id);
-			if (reply == null) {
-				throw new IllegalStateException("timed out waiting for reply");
+	@Value("${leaf.gateway.reply-topic:leaf-replies-${random.uuid}}")
+	private String replyTopic = "leaf-replies-" + UUID.randomUUID();
+
+	/**
+	 * The address runners post HTTP replies to, which must reach this instance rather
+	 * than any member of a cluster, since only it holds the pending request.
+	 */
+	@Value("${leaf.gateway.reply-url:${leaf.cluster.url:http://localhost:${server.port:5323}}}")
+	private String replyUrl = "http://localhost:5323";
+
+	private volatile org.springframework.cloud.stream.binder.Binding<MessageChannel> replyBinding;
+
+	private MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	private final AtomicLong counter = new AtomicLong();
+
+	private final ConcurrentMap<Long, PendingReply> replies = new ConcurrentHashMap<>();
+
+	private final ConcurrentMap<String, MessageChannel> channels = new ConcurrentHashMap<>();
+
+	private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "leaf-gateway-sweeper");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	public FunctionGateway() {
+		this.sweeper.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+				evictExpired();
 			}
-			return reply + "\n";
+		}, SWEEP_INTERVAL_MILLIS, SWEEP_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	@Autowired(required = false)
+	public void setMeterRegistry(MeterRegistry meterRegistry) {
+		this.meterRegistry = meterRegistry;
+		meterRegistry.gauge("leaf.gateway.pending.replies", this.replies, Map::size);
+	}
+
+	public DeferredResult<ResponseEntity<byte[]>> sendRequest(String topic, String message) {
+		return sendRequest(topic, message.getBytes(StandardCharsets.UTF_8), MediaType.TEXT_PLAIN_VALUE,
+				ReplyMode.BROKER);
+	}
+
+	/**
+	 * @param contentType the content type of the request, or {@code null} if unknown
+	 * @return the reply with the content type the runner gave it
+	 */
+	public DeferredResult<ResponseEntity<byte[]>> sendRequest(String topic, byte[] message, String contentType,
+			ReplyMode replyMode) {
+		if (replyMode == ReplyMode.BROKER) {
+			bindReplyConsumerIfNecessary();
+		}
+		final long id = this.counter.incrementAndGet();
+		final DeferredResult<ResponseEntity<byte[]>> result = new DeferredResult<>(this.replyTimeout);
+		final PendingReply pending = new PendingReply(result, System.currentTimeMillis() + this.replyTimeout,
+				System.nanoTime());
+		result.onTimeout(new Runnable() {
+
+			@Override
+			public void run() {
+				expire(id, pending);
+			}
+		});
+		result.onCompletion(new Runnable() {
+
+			@Override
+			public void run() {
+				replies.remove(id, pending);
+			}
+		});
+		this.replies.put(id, pending);
+		MessageBuilder<byte[]> builder = MessageBuilder.withPayload(message);
+		if (contentType != null) {
+			builder.setHeader(MessageHeaders.CONTENT_TYPE, contentType);
+		}
+		if (replyMode == ReplyMode.BROKER) {
+			builder.setHeader("gatewayReplyTopic", this.replyTopic).setHeader("gatewayCorrelationId", id);
 		}
-		catch (InterruptedException e) {
-			Thread.currentThread().interrupt();
-			return "interrupted exception occurred\n";
+		else {
+			builder.setHeader("gatewayReplyTo", this.replyUrl + "/replies/" + id);
 		}
+		Message<?> requestMessage = builder.build();
+		try {
+			sendMessage(topic, requestMessage);
+		}
+		catch (RuntimeException e) {
+			this.replies.remove(id, pending);
+			throw e;
+		}
+		return result;
 	}
 
 	public void sendEvent(String topic, String event) {
 		this.sendMessage(topic, MessageBuilder.withPayload(event).build());
 	}
 
-	public String handleReply(long id, String reply) {
-		try {
-			this.replies.get(id).put(reply);
+	/**
+	 * Send a batch of events, resolving the topic's channel once for all of them.
+	 * @param contentType the content type of every event, or {@code null} if unknown
+	 */
+	public void sendEvents(String topic, Iterable<String> events, String contentType) {
+		MessageChannel channel = channel(topic);
+		for (String event : events) {
+			MessageBuilder<String> builder = MessageBuilder.withPayload(event);
+			if (contentType != null) {
+				builder.setHeader(MessageHeaders.CONTENT_TYPE, contentType);
+			}
+			channel.send(builder.build());
+		}
+	}
+
+	/**
+	 * Send an event without decoding it.
+	 * @param contentType the content type of the event, or {@code null} if unknown
+	 */
+	public void sendEvent(String topic, byte[] event, String contentType) {
+		MessageBuilder<byte[]> builder = MessageBuilder.withPayload(event);
+		if (contentType != null) {
+			builder.setHeader(MessageHeaders.CONTENT_TYPE, contentType);
+		}
+		this.sendMessage(topic, builder.build());
+	}
+
+	/**
+	 * @param contentType the content type of the reply, or {@code null} for text
+	 */
+	public String handleReply(long id, byte[] reply, String contentType) {
+		PendingReply pending = this.replies.remove(id);
+		if (pending == null) {
+			return "no pending request for reply " + id + "\n";
 		}
-		catch (InterruptedException e) {
-			Thread.currentThread().interrupt();
+		this.meterRegistry.timer("leaf.gateway.requests", "outcome", "reply")
+				.record(System.nanoTime() - pending.start, TimeUnit.NANOSECONDS);
+		MediaType mediaType = (contentType != null) ? MediaType.parseMediaType(contentType) : MediaType.TEXT_PLAIN;
+		byte[] body = reply;
+		if ("text".equals(mediaType.getType())) {
+			// text replies end with a newline, as they always have
+			body = Arrays.copyOf(reply, reply.length + 1);
+			body[reply.length] = '\n';
 		}
+		pending.result.setResult(ResponseEntity.ok().contentType(mediaType).body(body));
 		return "ack\n";
 	}
 
+	void handleReply(Message<?> reply) {
+		Object id = reply.getHeaders().get("gatewayCorrelationId");
+		if (id == null) {
+			return;
+		}
+		Object payload = reply.getPayload();
+		byte[] output = (payload instanceof byte[])
+				? (byte[]) payload : payload.toString().getBytes(StandardCharsets.UTF_8);
+		Object contentType = reply.getHeaders().get(MessageHeaders.CONTENT_TYPE);
+		handleReply(Long.parseLong(id.toString()), output, (contentType != null) ? contentType.toString() : null);
+	}
+
+	public int getPendingReplyCount() {
+		return this.replies.size();
+	}
+
+	@Override
+	public void destroy() {
+		this.sweeper.shutdownNow();
+		if (this.replyBinding != null) {
+			this.replyBinding.unbind();
+		}
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private void bindReplyConsumerIfNecessary() {
+		if (this.replyBinding != null) {
+			return;
+		}
+		synchronized (this) {
+			if (this.replyBinding == null) {
+				DirectChannel channel = new DirectChannel();
+				channel.subscribe(new MessageHandler() {
+
+					@Override
+					public void handleMessage(Message<?> message) throws MessagingException {
+						handleReply(message);
+					}
+				});
+				Binder binder = this.binderFactory.getBinder(null, MessageChannel.class);
+				// anonymous group: an auto-delete queue owned by this controller instance
+				this.replyBinding = binder.bindConsumer(this.replyTopic, null, channel,
+						new ExtendedConsumerProperties<RabbitConsumerProperties>(new RabbitConsumerProperties()));
+			}
+		}
+	}
+
 	private void sendMessage(String topic, Message<?> message) {
-		MessageChannel channel = resolver.resolveDestination(topic);
-		channel.send(message);
+		channel(topic).send(message);
+	}
+
+	private MessageChannel channel(String topic) {
+		// the resolver looks the channel up in the bean factory, so keep our own handle
+		MessageChannel channel = this.channels.get(topic);
+		if (channel == null) {
+			channel = this.channels.computeIfAbsent(topic, t -> this.resolver.resolveDestination(t));
+		}
+		return channel;
+	}
+
+	private void expire(long id, PendingReply pending) {
+		if (this.replies.remove(id, pending)) {
+			this.meterRegistry.timer("leaf.gateway.requests", "outcome", "timeout")
+					.record(System.nanoTime() - pending.start, TimeUnit.NANOSECONDS);
+			this.meterRegistry.counter("leaf.gateway.timeouts").increment();
+			pending.result.setErrorResult(new IllegalStateException("timed out waiting for reply"));
+		}
+	}
+
+	private void evictExpired() {
+		long now = System.currentTimeMillis();
+		for (Map.Entry<Long, PendingReply> entry : this.replies.entrySet()) {
+			if (entry.getValue().deadline <= now) {
+				expire(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	public enum ReplyMode {
+
+		/**
+		 * Runner publishes the reply to this gateway's reply topic.
+		 */
+		BROKER,
+
+		/**
+		 * Runner posts the reply to the gateway's {@code /replies/{id}} endpoint.
+		 */
+		HTTP
+	}
+
+	private static class PendingReply {
+
+		private final DeferredResult<ResponseEntity<byte[]>> result;
+
+		private final long deadline;
+
+		private final long start;
+
+		PendingReply(DeferredResult<ResponseEntity<byte[]>> result, long deadline, long start) {
+			this.result = result;
+			this.deadline = deadline;
+			this.start = start;
+		}
 	}
 }
@@ -16,47 +16,180 @@
 
 package io.spring.leaf.controller;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.cloud.function.compiler.CompiledFunctionFactory;
 import org.springframework.cloud.function.compiler.FunctionCompiler;
+import org.springframework.core.io.Resource;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import io.spring.leaf.controller.repository.ByteBufferResource;
 import io.spring.leaf.controller.repository.FunctionRepository;
+import io.spring.leaf.controller.repository.MappedFunctionRepository;
 import reactor.core.publisher.Flux;
 
 /**
  * @author Mark Fisher
  */
 @RestController
-public class FunctionRegistryController {
+public class FunctionRegistryController implements InitializingBean {
+
+	private static final String FUNCTIONS = "functions";
 
 	@Autowired
 	private FunctionRepository repository;
 
+	@Autowired
+	private Cluster cluster;
+
 	private final FunctionCompiler<Flux<?>, Flux<?>> compiler = new FunctionCompiler<>();
 
+	private final Map<String, String> sourceHashes = new ConcurrentHashMap<>();
+
+	/**
+	 * Functions are replicated as bytecode rather than source, so every member stores
+	 * the same content hashes and a pinned version can be served by any of them.
+	 */
+	@Override
+	public void afterPropertiesSet() {
+		this.cluster.register(FUNCTIONS, new Cluster.ReplicatedState() {
+
+			@Override
+			public Collection<Map<String, String>> entries() {
+				List<Map<String, String>> entries = new ArrayList<>();
+				for (String name : repository.names()) {
+					// oldest first, so the latest version stays the latest
+					for (String version : repository.versions(name)) {
+						ByteBuffer bytecode = repository.find(name, version);
+						if (bytecode != null) {
+							byte[] bytes = new byte[bytecode.remaining()];
+							bytecode.get(bytes);
+							entries.add(toEntry(name, bytes));
+						}
+					}
+				}
+				return entries;
+			}
+
+			@Override
+			public Collection<String> keys() {
+				return Collections.emptySet();
+			}
+
+			@Override
+			public void put(Map<String, String> entry) {
+				sourceHashes.remove(entry.get("name"));
+				repository.save(entry.get("name"), Base64.getDecoder().decode(entry.get("bytecode")));
+			}
+
+			@Override
+			public void remove(String key) {
+			}
+		});
+	}
+
 	@GetMapping("/registry")
 	public String[] list() {
 		return this.repository.names();
 	}
 
+	/**
+	 * Serve the latest version of a function, or the version with the given content hash.
+	 */
 	@GetMapping(value="/registry/{name}", produces="application/octet-stream")
-	public byte[] lookup(@PathVariable String name) {
-		return this.repository.find(name);
+	public ResponseEntity<Resource> lookup(@PathVariable String name, @RequestParam(required = false) String version) {
+		if (version == null) {
+			version = hash(name);
+		}
+		ByteBuffer bytecode = (version != null) ? this.repository.find(name, version) : null;
+		if (bytecode == null) {
+			return ResponseEntity.notFound().build();
+		}
+		// an If-None-Match request with a matching ETag gets a 304 and no body
+		return ResponseEntity.ok().eTag(version).contentLength(bytecode.remaining())
+				.body(new ByteBufferResource(bytecode));
+	}
+
+	@GetMapping("/registry/{name}/versions")
+	public List<String> versions(@PathVariable String name) {
+		return this.repository.versions(name);
 	}
 
+	/**
+	 * Compile a lambda. Its input and output element types default to {@code String}; a
+	 * function on a binding with a binary or JSON content type declares the types its
+	 * codec produces, for example {@code byte[]} or {@code JsonNode}.
+	 */
 	@PostMapping(value="/registry/{name}", consumes="text/plain")
-	public void compile(@PathVariable String name, @RequestBody String lambda) {
-		CompiledFunctionFactory<?> factory = this.compiler.compile(name, lambda);//, types);
-		this.repository.save(name, factory.getGeneratedClassBytes());
+	public void compile(@PathVariable String name, @RequestBody String lambda,
+			@RequestParam(required = false) String inputType, @RequestParam(required = false) String outputType) {
+		String[] types = (inputType == null && outputType == null) ? new String[0]
+				: new String[] { "Flux<" + (inputType != null ? inputType : "String") + ">",
+						"Flux<" + (outputType != null ? outputType : "String") + ">" };
+		String source = StringUtils.arrayToCommaDelimitedString(types) + "\n" + lambda;
+		String sourceHash = MappedFunctionRepository.hash(source.getBytes(StandardCharsets.UTF_8));
+		if (sourceHash.equals(this.sourceHashes.get(name)) && hash(name) != null) {
+			return;
+		}
+		CompiledFunctionFactory<?> factory = this.compiler.compile(name, lambda, types);
+		byte[] bytecode = factory.getGeneratedClassBytes();
+		this.repository.save(name, bytecode);
+		this.sourceHashes.put(name, sourceHash);
+		this.cluster.publish(FUNCTIONS, toEntry(name, bytecode));
 	}
 
 	@PostMapping(value="/registry/{name}", consumes="application/octet-stream")
 	public void register(@PathVariable String name, @RequestBody byte[] bytecode) {
+		this.sourceHashes.remove(name);
 		this.repository.save(name, bytecode);
+		this.cluster.publish(FUNCTIONS, toEntry(name, bytecode));
+	}
+
+	/**
+	 * @return the content hashes of the functions' current bytecode, separated by commas,
+	 * or {@code null} if any of them is not registered
+	 */
+	public String hash(String[] names) {
+		String[] hashes = new String[names.length];
+		for (int i = 0; i < names.length; i++) {
+			hashes[i] = hash(names[i]);
+			if (hashes[i] == null) {
+				return null;
+			}
+		}
+		return StringUtils.arrayToCommaDelimitedString(hashes);
+	}
+
+	/**
+	 * @return the content hash of the function's current bytecode, or {@code null}
+	 */
+	public String hash(String name) {
+		List<String> versions = this.repository.versions(name);
+		return versions.isEmpty() ? null : versions.get(versions.size() - 1);
+	}
+
+	private static Map<String, String> toEntry(String name, byte[] bytecode) {
+		Map<String, String> entry = new HashMap<>();
+		entry.put("name", name);
+		entry.put("bytecode", Base64.getEncoder().encodeToString(bytecode));
+		return entry;
 	}
 }
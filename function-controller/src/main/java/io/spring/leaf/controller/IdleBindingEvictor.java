@@ -0,0 +1,122 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.spring.leaf.controller;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import io.spring.leaf.controller.BrokerAdmin.QueueStatus;
+import io.spring.leaf.controller.repository.BindingRepository;
+
+/**
+ * Scales idle bindings to zero. A binding whose instances have processed nothing for
+ * {@code leaf.binding.idle-timeout} milliseconds, with nothing in flight and nothing
+ * queued, has its runners undeployed and is reset so that the topic monitor activates
+ * it again on the next message. A shared runner keeps running and only stops hosting
+ * the idle binding.
+ *
+ * @author Mark Fisher
+ */
+@Component
+public class IdleBindingEvictor implements DisposableBean {
+
+	private static final Log logger = LogFactory.getLog(IdleBindingEvictor.class);
+
+	@Autowired
+	private BindingRepository bindingRepository;
+
+	@Autowired
+	private Deployer deployer;
+
+	@Autowired
+	private BrokerAdmin brokerAdmin;
+
+	@Autowired
+	private RunnerStatsCollector stats;
+
+	@Value("${leaf.binding.idle-timeout:300000}")
+	private long idleTimeout;
+
+	@Value("${leaf.binding.idle-check-interval:10000}")
+	private long interval;
+
+	private ScheduledExecutorService executor;
+
+	public synchronized void start() {
+		if (this.executor != null || this.idleTimeout <= 0) {
+			return;
+		}
+		this.stats.start();
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("leaf-idle-evictor-");
+		threadFactory.setDaemon(true);
+		this.executor = Executors.newSingleThreadScheduledExecutor(threadFactory);
+		this.executor.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					evictIdleBindings();
+				}
+				catch (RuntimeException e) {
+					logger.error("idle binding eviction failed", e);
+				}
+			}
+		}, this.interval, this.interval, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public synchronized void destroy() {
+		if (this.executor != null) {
+			this.executor.shutdownNow();
+		}
+	}
+
+	void evictIdleBindings() {
+		long now = System.currentTimeMillis();
+		for (String name : this.bindingRepository.names()) {
+			Binding binding = this.bindingRepository.get(name);
+			if (binding == null || this.deployer.getState(name) != Deployer.BindingState.RUNNING) {
+				continue;
+			}
+			if (this.stats.getInstances(name).isEmpty() || this.stats.getInFlight(name) > 0
+					|| now - this.stats.getLastActive(name) < this.idleTimeout || hasBacklog(binding)) {
+				continue;
+			}
+			logger.info("binding " + name + " idle for " + (now - this.stats.getLastActive(name)) + "ms, undeploying");
+			this.deployer.deactivate(name);
+			// a message that arrived while deactivating was ignored by the monitor
+			if (hasBacklog(binding)) {
+				this.deployer.deployIfNecessary(binding.getInput());
+			}
+		}
+	}
+
+	private boolean hasBacklog(Binding binding) {
+		QueueStatus queue = this.brokerAdmin.getQueueStatus(binding.getInput(), "default");
+		return queue != null && queue.getMessageCount() > 0;
+	}
+}
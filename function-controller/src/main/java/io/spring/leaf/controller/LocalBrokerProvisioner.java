@@ -0,0 +1,55 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.spring.leaf.controller;
+
+import org.springframework.cloud.stream.binder.Binder;
+import org.springframework.stereotype.Component;
+
+import io.spring.leaf.binder.local.LocalBroker;
+import io.spring.leaf.binder.local.LocalMessageChannelBinder;
+import io.spring.leaf.controller.BrokerAdmin.QueueStatus;
+
+/**
+ * Provisions queues of the in-process {@link LocalBroker}. Its topics only exist in this
+ * JVM, so runners launched as separate processes cannot consume from them.
+ *
+ * @author Mark Fisher
+ */
+@Component
+public class LocalBrokerProvisioner implements BrokerProvisioner {
+
+	@Override
+	public boolean supports(Binder<?, ?, ?> binder) {
+		return binder instanceof LocalMessageChannelBinder;
+	}
+
+	@Override
+	public boolean isShared() {
+		return false;
+	}
+
+	@Override
+	public void provisionConsumerDestination(Binder<?, ?, ?> binder, String topic, String group) {
+		((LocalMessageChannelBinder) binder).provisionConsumerDestination(topic, group);
+	}
+
+	@Override
+	public QueueStatus getQueueStatus(Binder<?, ?, ?> binder, String topic, String group) {
+		LocalBroker.Queue queue = ((LocalMessageChannelBinder) binder).getBroker().getQueue(topic, group);
+		return (queue != null) ? new QueueStatus(queue.getMessageCount(), queue.getConsumerCount()) : null;
+	}
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.spring.leaf.controller;
+
+import java.util.Set;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Published by the {@link Cluster} after the set of live members has changed and its
+ * ring has been rebuilt, so that each member can take over the bindings and triggers it
+ * now owns and let go of the ones it no longer owns.
+ *
+ * @author Mark Fisher
+ */
+@SuppressWarnings("serial")
+public class MembershipChangedEvent extends ApplicationEvent {
+
+	private final Set<String> previous;
+
+	private final Set<String> current;
+
+	public MembershipChangedEvent(Cluster source, Set<String> previous, Set<String> current) {
+		super(source);
+		this.previous = previous;
+		this.current = current;
+	}
+
+	public Set<String> getPrevious() {
+		return previous;
+	}
+
+	public Set<String> getCurrent() {
+		return current;
+	}
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.spring.leaf.controller;
+
+import java.lang.reflect.Field;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.springframework.amqp.rabbit.core.RabbitAdmin;
+import org.springframework.cloud.stream.binder.Binder;
+import org.springframework.cloud.stream.binder.ExtendedConsumerProperties;
+import org.springframework.cloud.stream.binder.rabbit.RabbitMessageChannelBinder;
+import org.springframework.cloud.stream.binder.rabbit.properties.RabbitConsumerProperties;
+import org.springframework.cloud.stream.provisioning.ProvisioningProvider;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ReflectionUtils;
+import org.springframework.util.ReflectionUtils.FieldCallback;
+
+import io.spring.leaf.controller.BrokerAdmin.QueueStatus;
+
+/**
+ * Provisions through the Rabbit binder's own provisioner and reads queue depths with
+ * its {@link RabbitAdmin}. The binder does not expose either, so they are looked up
+ * reflectively.
+ *
+ * @author Mark Fisher
+ */
+@Component
+public class RabbitBrokerProvisioner implements BrokerProvisioner {
+
+	@Override
+	public boolean supports(Binder<?, ?, ?> binder) {
+		return binder instanceof RabbitMessageChannelBinder;
+	}
+
+	@Override
+	public boolean isShared() {
+		return true;
+	}
+
+	@Override
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public void provisionConsumerDestination(Binder<?, ?, ?> binder, String topic, String group) {
+		ProvisioningProvider provisioner = getField(binder, ProvisioningProvider.class);
+		provisioner.provisionConsumerDestination(topic, group,
+				new ExtendedConsumerProperties<RabbitConsumerProperties>(new RabbitConsumerProperties()));
+	}
+
+	@Override
+	public QueueStatus getQueueStatus(Binder<?, ?, ?> binder, String topic, String group) {
+		RabbitAdmin admin = getField(getField(binder, ProvisioningProvider.class), RabbitAdmin.class);
+		Properties properties;
+		try {
+			properties = admin.getQueueProperties(topic + "." + group);
+		}
+		catch (RuntimeException e) {
+			return null;
+		}
+		if (properties == null) {
+			return null;
+		}
+		return new QueueStatus(((Number) properties.get(RabbitAdmin.QUEUE_MESSAGE_COUNT)).longValue(),
+				((Number) properties.get(RabbitAdmin.QUEUE_CONSUMER_COUNT)).intValue());
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T getField(Object target, final Class<T> type) {
+		final AtomicReference<Field> match = new AtomicReference<>();
+		ReflectionUtils.doWithFields(target.getClass(), new FieldCallback() {
+
+			@Override
+			public void doWith(Field field) throws IllegalArgumentException, IllegalAccessException {
+				if (type.isAssignableFrom(field.getType())) {
+					field.setAccessible(true);
+					match.set(field);
+				}
+			}
+		});
+		return (T) ReflectionUtils.getField(match.get(), target);
+	}
+}
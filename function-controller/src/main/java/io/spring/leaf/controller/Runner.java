@@ -0,0 +1,81 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.spring.leaf.controller;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @author Mark Fisher
+ */
+public class Runner {
+
+	private final String name;
+
+	private final String location;
+
+	private final boolean shared;
+
+	private final Integer poolSize;
+
+	public Runner(String name, String location, boolean shared, Integer poolSize) {
+		this.name = name;
+		this.location = location;
+		this.shared = shared;
+		this.poolSize = poolSize;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getLocation() {
+		return location;
+	}
+
+	public boolean isShared() {
+		return shared;
+	}
+
+	public Integer getPoolSize() {
+		return poolSize;
+	}
+
+	/**
+	 * @return the runner as string properties, as it is persisted and replicated
+	 */
+	public Map<String, String> toProperties() {
+		Map<String, String> properties = new HashMap<>();
+		properties.put("name", name);
+		properties.put("location", location);
+		properties.put("shared", String.valueOf(shared));
+		properties.put("poolSize", (poolSize != null) ? String.valueOf(poolSize) : null);
+		return properties;
+	}
+
+	public static Runner fromProperties(Map<String, String> properties) {
+		String poolSize = properties.get("poolSize");
+		return new Runner(properties.get("name"), properties.get("location"),
+				Boolean.parseBoolean(properties.get("shared")), (poolSize != null) ? Integer.valueOf(poolSize) : null);
+	}
+
+	@Override
+	public String toString() {
+		return "Runner [name=" + name + ", location=" + location + ", shared=" + shared + ", poolSize=" + poolSize
+				+ "]";
+	}
+}
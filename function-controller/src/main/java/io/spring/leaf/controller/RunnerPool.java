@@ -0,0 +1,167 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.spring.leaf.controller;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bookkeeping for the idle, already-booted instances kept ready for one runner type.
+ * A dedicated runner claims the first deployment request published to its bootstrap
+ * topic, so any idle instance can take a new binding without a cold start.
+ *
+ * @author Mark Fisher
+ */
+public class RunnerPool {
+
+	private final String runner;
+
+	private volatile int size;
+
+	private final AtomicInteger idle = new AtomicInteger();
+
+	private final AtomicInteger starting = new AtomicInteger();
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	private final AtomicLong coldStarts = new AtomicLong();
+
+	private final AtomicLong coldStartMillis = new AtomicLong();
+
+	private volatile long lastColdStartMillis;
+
+	public RunnerPool(String runner, int size) {
+		this.runner = runner;
+		this.size = size;
+	}
+
+	public String getRunner() {
+		return runner;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public synchronized void resize(int delta) {
+		this.size = Math.max(0, this.size + delta);
+	}
+
+	/**
+	 * Claim an idle instance for a new binding.
+	 * @return {@code true} on a pool hit, {@code false} if a runner has to be cold started
+	 */
+	public boolean claim() {
+		int current;
+		do {
+			current = this.idle.get();
+			if (current == 0) {
+				this.misses.incrementAndGet();
+				return false;
+			}
+		}
+		while (!this.idle.compareAndSet(current, current - 1));
+		this.hits.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Reserve the instances needed to bring the pool back to its size.
+	 * @return the number of instances the caller should start
+	 */
+	public synchronized int reserve() {
+		int needed = this.size - this.idle.get() - this.starting.get();
+		if (needed > 0) {
+			this.starting.addAndGet(needed);
+			return needed;
+		}
+		return 0;
+	}
+
+	/**
+	 * Give up the idle instances beyond the pool's size, after it has been shrunk.
+	 * Instances still starting count toward the size.
+	 * @return the number of idle instances the caller should undeploy
+	 */
+	public synchronized int trim() {
+		int current;
+		int surplus;
+		do {
+			current = this.idle.get();
+			surplus = Math.min(current, current + this.starting.get() - this.size);
+			if (surplus <= 0) {
+				return 0;
+			}
+		}
+		while (!this.idle.compareAndSet(current, current - surplus));
+		return surplus;
+	}
+
+	/**
+	 * Count instances that were already running when the controller restarted as idle.
+	 */
+	public void adopt(int count) {
+		this.idle.addAndGet(count);
+	}
+
+	public void started(long millis) {
+		this.starting.decrementAndGet();
+		this.idle.incrementAndGet();
+		recordColdStart(millis);
+	}
+
+	public void failed() {
+		this.starting.decrementAndGet();
+	}
+
+	public void recordColdStart(long millis) {
+		this.coldStarts.incrementAndGet();
+		this.coldStartMillis.addAndGet(millis);
+		this.lastColdStartMillis = millis;
+	}
+
+	public int getIdle() {
+		return idle.get();
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getColdStarts() {
+		return coldStarts.get();
+	}
+
+	public long getAverageColdStartMillis() {
+		long count = this.coldStarts.get();
+		return (count == 0) ? 0 : this.coldStartMillis.get() / count;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("{\"runner\":\"%s\",\"size\":%d,\"idle\":%d,\"starting\":%d,\"hits\":%d,\"misses\":%d,"
+				+ "\"coldStarts\":%d,\"averageColdStartMillis\":%d,\"lastColdStartMillis\":%d}",
+				this.runner, this.size, this.idle.get(), this.starting.get(), this.hits.get(), this.misses.get(),
+				this.coldStarts.get(), getAverageColdStartMillis(), this.lastColdStartMillis);
+	}
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.spring.leaf.controller;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.stream.binder.Binder;
+import org.springframework.cloud.stream.binder.ExtendedConsumerProperties;
+import org.springframework.cloud.stream.binder.rabbit.properties.RabbitConsumerProperties;
+import org.springframework.integration.channel.DirectChannel;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.MessagingException;
+import org.springframework.stereotype.Component;
+
+/**
+ * Collects the invocation counts that runner instances periodically publish to the
+ * {@code leaf-runner-stats} topic, which tells the controller which instance runs
+ * which binding and at what rate.
+ *
+ * @author Mark Fisher
+ */
+@Component
+public class RunnerStatsCollector {
+
+	public static final String STATS_TOPIC = "leaf-runner-stats";
+
+	@Autowired
+	private BrokerAdmin brokerAdmin;
+
+	@Value("${leaf.runner.stats-interval:5000}")
+	private long statsInterval = 5000;
+
+	/**
+	 * The stats of each binding by instance. A shared runner instance reports each binding
+	 * it hosts, a dedicated one its only binding.
+	 */
+	private final ConcurrentMap<String, ConcurrentMap<String, InstanceStats>> instances = new ConcurrentHashMap<>();
+
+	private volatile boolean bound;
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public synchronized void start() {
+		if (this.bound) {
+			return;
+		}
+		DirectChannel channel = new DirectChannel();
+		channel.subscribe(new MessageHandler() {
+
+			@Override
+			public void handleMessage(Message<?> message) throws MessagingException {
+				Number inFlight = message.getHeaders().get("leafInFlight", Number.class);
+				record(message.getHeaders().get("leafRunnerInstance", String.class),
+						message.getHeaders().get("leafBinding", String.class),
+						message.getHeaders().get("leafInvocations", Number.class).longValue(),
+						(inFlight != null) ? inFlight.intValue() : 0);
+			}
+		});
+		Binder binder = this.brokerAdmin.getBinder();
+		binder.bindConsumer(STATS_TOPIC, null, channel,
+				new ExtendedConsumerProperties<RabbitConsumerProperties>(new RabbitConsumerProperties()));
+		this.bound = true;
+	}
+
+	public void record(String instance, String binding, long invocations, int inFlight) {
+		long now = System.currentTimeMillis();
+		ConcurrentMap<String, InstanceStats> bindings = this.instances.computeIfAbsent(instance,
+				i -> new ConcurrentHashMap<>());
+		InstanceStats previous = bindings.get(binding);
+		double rate = 0;
+		long lastActive = now;
+		if (previous != null) {
+			if (now > previous.timestamp && invocations >= previous.invocations) {
+				rate = (invocations - previous.invocations) * 1000.0 / (now - previous.timestamp);
+			}
+			if (invocations == previous.invocations && inFlight == 0) {
+				lastActive = previous.lastActive;
+			}
+		}
+		bindings.put(binding, new InstanceStats(invocations, inFlight, rate, now, lastActive));
+	}
+
+	public void remove(String instance) {
+		this.instances.remove(instance);
+	}
+
+	/**
+	 * Forget the binding's stats on every instance, as when a shared runner stops hosting it.
+	 */
+	public void removeBinding(String binding) {
+		for (Map<String, InstanceStats> bindings : this.instances.values()) {
+			bindings.remove(binding);
+		}
+	}
+
+	/**
+	 * @return the instances that have recently reported invocations of the binding
+	 */
+	public List<String> getInstances(String binding) {
+		List<String> results = new ArrayList<>();
+		long cutoff = System.currentTimeMillis() - 3 * this.statsInterval;
+		for (Map.Entry<String, ConcurrentMap<String, InstanceStats>> entry : this.instances.entrySet()) {
+			InstanceStats stats = entry.getValue().get(binding);
+			if (stats != null && stats.timestamp >= cutoff) {
+				results.add(entry.getKey());
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * @return the combined invocations per second of all live instances of the binding
+	 */
+	public double getRate(String binding) {
+		double rate = 0;
+		for (String instance : getInstances(binding)) {
+			InstanceStats stats = get(instance, binding);
+			if (stats != null) {
+				rate += stats.rate;
+			}
+		}
+		return rate;
+	}
+
+	/**
+	 * @return the number of messages currently being processed by the binding's instances
+	 */
+	public int getInFlight(String binding) {
+		int inFlight = 0;
+		for (String instance : getInstances(binding)) {
+			InstanceStats stats = get(instance, binding);
+			if (stats != null) {
+				inFlight += stats.inFlight;
+			}
+		}
+		return inFlight;
+	}
+
+	/**
+	 * @return the last time any instance of the binding was seen processing a message
+	 */
+	public long getLastActive(String binding) {
+		long lastActive = 0;
+		for (String instance : getInstances(binding)) {
+			InstanceStats stats = get(instance, binding);
+			if (stats != null) {
+				lastActive = Math.max(lastActive, stats.lastActive);
+			}
+		}
+		return lastActive;
+	}
+
+	private InstanceStats get(String instance, String binding) {
+		Map<String, InstanceStats> bindings = this.instances.get(instance);
+		return (bindings != null) ? bindings.get(binding) : null;
+	}
+
+	private static class InstanceStats {
+
+		private final long invocations;
+
+		private final int inFlight;
+
+		private final double rate;
+
+		private final long timestamp;
+
+		private final long lastActive;
+
+		InstanceStats(long invocations, int inFlight, double rate, long timestamp, long lastActive) {
+			this.invocations = invocations;
+			this.inFlight = inFlight;
+			this.rate = rate;
+			this.timestamp = timestamp;
+			this.lastActive = lastActive;
+		}
+	}
+}
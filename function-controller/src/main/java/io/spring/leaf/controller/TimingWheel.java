@@ -0,0 +1,276 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.spring.leaf.controller;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Hierarchical timing wheel for large numbers of one-shot timeouts. Each level is a
+ * ring of {@code wheelSize} buckets of one tick each; a deadline beyond the range of a
+ * level goes to the next, coarser level, created on demand, and moves down as its bucket
+ * comes due. Scheduling and cancelling are constant time regardless of how many timeouts
+ * are pending. A single driver thread waits only for the next non-empty bucket, and due
+ * tasks run on the given executor, so a slow task never delays the others.
+ *
+ * @author Mark Fisher
+ */
+public class TimingWheel {
+
+	private static final Log logger = LogFactory.getLog(TimingWheel.class);
+
+	private final long tickMillis;
+
+	private final int wheelSize;
+
+	private final Executor executor;
+
+	private final DelayQueue<Bucket> queue = new DelayQueue<>();
+
+	private final Level root;
+
+	private final Thread driver;
+
+	private volatile boolean running;
+
+	/**
+	 * @param tickMillis the resolution of the wheel
+	 * @param wheelSize the number of buckets per level
+	 * @param executor runs the tasks of expired timeouts
+	 */
+	public TimingWheel(long tickMillis, int wheelSize, Executor executor) {
+		this.tickMillis = tickMillis;
+		this.wheelSize = wheelSize;
+		this.executor = executor;
+		long now = System.currentTimeMillis();
+		this.root = new Level(tickMillis, now - (now % tickMillis));
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("leaf-timing-wheel-");
+		threadFactory.setDaemon(true);
+		this.driver = threadFactory.newThread(new Runnable() {
+
+			@Override
+			public void run() {
+				drive();
+			}
+		});
+	}
+
+	public void start() {
+		this.running = true;
+		this.driver.start();
+	}
+
+	public void stop() {
+		this.running = false;
+		this.driver.interrupt();
+	}
+
+	/**
+	 * Run the task at the given time, or as soon as possible if it has already passed.
+	 * @param deadline the time in milliseconds since the epoch
+	 */
+	public Timeout schedule(Runnable task, long deadline) {
+		Timeout timeout = new Timeout(task, deadline);
+		boolean added;
+		synchronized (this) {
+			added = this.root.add(timeout);
+		}
+		if (!added) {
+			run(timeout);
+		}
+		return timeout;
+	}
+
+	private void drive() {
+		while (this.running) {
+			Bucket bucket;
+			try {
+				bucket = this.queue.poll(this.tickMillis, TimeUnit.MILLISECONDS);
+			}
+			catch (InterruptedException e) {
+				return;
+			}
+			List<Timeout> due = new ArrayList<>();
+			synchronized (this) {
+				while (bucket != null) {
+					this.root.advance(bucket.getExpiration());
+					for (Timeout timeout : bucket.flush()) {
+						// entries from a coarser level move down, or are due now
+						if (!timeout.isCancelled() && !this.root.add(timeout)) {
+							due.add(timeout);
+						}
+					}
+					bucket = this.queue.poll();
+				}
+			}
+			for (Timeout timeout : due) {
+				run(timeout);
+			}
+		}
+	}
+
+	private void run(final Timeout timeout) {
+		try {
+			this.executor.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					if (!timeout.isCancelled()) {
+						timeout.task.run();
+					}
+				}
+			});
+		}
+		catch (RuntimeException e) {
+			logger.error("failed to run timeout due at " + timeout.deadline, e);
+		}
+	}
+
+	private class Level {
+
+		private final long tick;
+
+		private final long interval;
+
+		private final Bucket[] buckets;
+
+		private long currentTime;
+
+		private Level overflow;
+
+		Level(long tick, long startTime) {
+			this.tick = tick;
+			this.interval = tick * wheelSize;
+			this.buckets = new Bucket[wheelSize];
+			for (int i = 0; i < wheelSize; i++) {
+				this.buckets[i] = new Bucket();
+			}
+			this.currentTime = startTime - (startTime % tick);
+		}
+
+		/**
+		 * @return {@code false} if the timeout is already due
+		 */
+		boolean add(Timeout timeout) {
+			// placing by the deadline rounded up to a whole tick means nothing runs early
+			long key = timeout.deadline + tickMillis - 1;
+			if (key < this.currentTime + this.tick) {
+				return false;
+			}
+			if (key < this.currentTime + this.interval) {
+				long virtualId = key / this.tick;
+				Bucket bucket = this.buckets[(int) (virtualId % wheelSize)];
+				bucket.add(timeout);
+				if (bucket.setExpiration(virtualId * this.tick)) {
+					queue.offer(bucket);
+				}
+				return true;
+			}
+			if (this.overflow == null) {
+				this.overflow = new Level(this.interval, this.currentTime);
+			}
+			return this.overflow.add(timeout);
+		}
+
+		void advance(long time) {
+			if (time >= this.currentTime + this.tick) {
+				this.currentTime = time - (time % this.tick);
+				if (this.overflow != null) {
+					this.overflow.advance(this.currentTime);
+				}
+			}
+		}
+	}
+
+	private static class Bucket implements Delayed {
+
+		private final AtomicLong expiration = new AtomicLong(-1);
+
+		private List<Timeout> timeouts = new ArrayList<>();
+
+		synchronized void add(Timeout timeout) {
+			this.timeouts.add(timeout);
+		}
+
+		synchronized List<Timeout> flush() {
+			List<Timeout> flushed = this.timeouts;
+			this.timeouts = new ArrayList<>();
+			this.expiration.set(-1);
+			return flushed;
+		}
+
+		/**
+		 * @return whether the expiration changed, in which case the bucket is requeued
+		 */
+		boolean setExpiration(long expiration) {
+			return this.expiration.getAndSet(expiration) != expiration;
+		}
+
+		long getExpiration() {
+			return this.expiration.get();
+		}
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(Math.max(0, getExpiration() - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+		}
+
+		@Override
+		public int compareTo(Delayed other) {
+			return Long.compare(getExpiration(), ((Bucket) other).getExpiration());
+		}
+	}
+
+	/**
+	 * A scheduled task; cancelling it before it is due keeps it from running.
+	 */
+	public static class Timeout {
+
+		private final Runnable task;
+
+		private final long deadline;
+
+		private volatile boolean cancelled;
+
+		Timeout(Runnable task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		public long getDeadline() {
+			return this.deadline;
+		}
+
+		public void cancel() {
+			this.cancelled = true;
+		}
+
+		public boolean isCancelled() {
+			return this.cancelled;
+		}
+	}
+}
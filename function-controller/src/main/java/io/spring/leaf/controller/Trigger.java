@@ -0,0 +1,162 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.spring.leaf.controller;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Publishes to a topic either on a cron schedule or at a fixed rate. Each fire sends
+ * {@code burst} messages, whose payload is the trigger id unless a payload template is
+ * set; the template may refer to {@code {id}}, {@code {seq}} (the number of the message
+ * since the trigger was scheduled) and {@code {time}} (the scheduled time of the fire in
+ * epoch milliseconds).
+ *
+ * @author Mark Fisher
+ */
+public class Trigger {
+
+	private final String id;
+
+	private final String topic;
+
+	private final String cron;
+
+	private final MisfirePolicy misfirePolicy;
+
+	private long rate;
+
+	private int burst = 1;
+
+	private String payload;
+
+	public Trigger(String id, String topic, String cron) {
+		this(id, topic, cron, MisfirePolicy.FIRE);
+	}
+
+	public Trigger(String id, String topic, String cron, MisfirePolicy misfirePolicy) {
+		this.id = id;
+		this.topic = topic;
+		this.cron = cron;
+		this.misfirePolicy = misfirePolicy;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getTopic() {
+		return topic;
+	}
+
+	public String getCron() {
+		return cron;
+	}
+
+	public MisfirePolicy getMisfirePolicy() {
+		return misfirePolicy;
+	}
+
+	/**
+	 * @return the interval between fires in milliseconds, or 0 if the trigger has a cron
+	 * schedule
+	 */
+	public long getRate() {
+		return rate;
+	}
+
+	public void setRate(long rate) {
+		this.rate = rate;
+	}
+
+	public int getBurst() {
+		return burst;
+	}
+
+	public void setBurst(int burst) {
+		this.burst = burst;
+	}
+
+	/**
+	 * @return the payload template, or {@code null} to publish the trigger id
+	 */
+	public String getPayload() {
+		return payload;
+	}
+
+	public void setPayload(String payload) {
+		this.payload = payload;
+	}
+
+	/**
+	 * @return the trigger as string properties, as it is persisted and replicated
+	 */
+	public Map<String, String> toProperties() {
+		Map<String, String> properties = new HashMap<>();
+		properties.put("id", id);
+		properties.put("topic", topic);
+		properties.put("cron", cron);
+		properties.put("misfire", misfirePolicy.name());
+		properties.put("rate", String.valueOf(rate));
+		properties.put("burst", String.valueOf(burst));
+		properties.put("payload", payload);
+		return properties;
+	}
+
+	public static Trigger fromProperties(Map<String, String> properties) {
+		String misfire = properties.get("misfire");
+		Trigger trigger = new Trigger(properties.get("id"), properties.get("topic"), properties.get("cron"),
+				(misfire != null) ? MisfirePolicy.valueOf(misfire) : MisfirePolicy.FIRE);
+		String rate = properties.get("rate");
+		if (rate != null) {
+			trigger.setRate(Long.parseLong(rate));
+		}
+		String burst = properties.get("burst");
+		if (burst != null) {
+			trigger.setBurst(Integer.parseInt(burst));
+		}
+		trigger.setPayload(properties.get("payload"));
+		return trigger;
+	}
+
+	@Override
+	public String toString() {
+		String schedule = (this.cron != null) ? String.format("\"cron\":\"%s\"", this.cron)
+				: String.format("\"rate\":%d", this.rate);
+		String payload = (this.payload != null)
+				? String.format(",\"payload\":\"%s\"", this.payload.replace("\\", "\\\\").replace("\"", "\\\"")) : "";
+		return String.format("{\"id\":\"%s\",\"topic\":\"%s\",%s,\"burst\":%d,\"misfire\":\"%s\"%s}", this.id,
+				this.topic, schedule, this.burst, this.misfirePolicy.name().toLowerCase(), payload);
+	}
+
+	/**
+	 * What to do with a fire that runs later than the misfire threshold, for example
+	 * after a pause of the controller.
+	 */
+	public enum MisfirePolicy {
+
+		/**
+		 * Fire once, late, then continue with the next scheduled time.
+		 */
+		FIRE,
+
+		/**
+		 * Drop the late fire and continue with the next scheduled time.
+		 */
+		SKIP
+	}
+}
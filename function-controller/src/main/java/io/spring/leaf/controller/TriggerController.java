@@ -16,98 +16,482 @@
 
 package io.spring.leaf.controller;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.cloud.stream.binding.BinderAwareChannelResolver;
-import org.springframework.messaging.MessageChannel;
-import org.springframework.messaging.support.MessageBuilder;
-import org.springframework.scheduling.TaskScheduler;
-import org.springframework.scheduling.concurrent.ConcurrentTaskScheduler;
-import org.springframework.scheduling.support.CronTrigger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.scheduling.support.CronSequenceGenerator;
 import org.springframework.util.StringUtils;
+import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.spring.leaf.controller.Trigger.MisfirePolicy;
+import io.spring.leaf.controller.repository.TriggerRepository;
+
 /**
+ * Fires cron and fixed-rate triggers by publishing to the trigger's topic. Triggers are
+ * kept in a {@link TimingWheel}, so scheduling cost does not grow with the number of
+ * triggers, and fires run on a pool of {@code leaf.trigger.workers} threads through the
+ * gateway's cached channels. A fire running more than {@code leaf.trigger.misfire-threshold}
+ * milliseconds late is handled according to the trigger's {@link MisfirePolicy}. A fire
+ * publishes its burst of messages as one batch on the worker that runs it.
+ * <p>
+ * In a {@link Cluster} every member stores every trigger, but only the owner of a
+ * trigger fires it.
+ *
  * @author Mark Fisher
  */
 @RestController
-public class TriggerController {
+public class TriggerController implements InitializingBean, DisposableBean {
+
+	private static final Log logger = LogFactory.getLog(TriggerController.class);
+
+	private static final String TRIGGERS = "triggers";
+
+	@Autowired
+	private FunctionGateway gateway;
+
+	@Autowired
+	private Cluster cluster;
 
 	@Autowired
-	private BinderAwareChannelResolver resolver;
+	private TriggerRepository triggers;
 
-	private final TaskScheduler scheduler = new ConcurrentTaskScheduler();
+	@Value("${leaf.trigger.tick:10}")
+	private long tick = 10;
 
-	private final Map<String, Trigger> triggers = new HashMap<>();
+	@Value("${leaf.trigger.wheel-size:512}")
+	private int wheelSize = 512;
+
+	@Value("${leaf.trigger.workers:4}")
+	private int workers = 4;
+
+	@Value("${leaf.trigger.misfire-threshold:1000}")
+	private long misfireThreshold = 1000;
+
+	private final ConcurrentMap<String, ScheduledTrigger> scheduled = new ConcurrentHashMap<>();
+
+	private ExecutorService workerPool;
+
+	private TimingWheel wheel;
+
+	private Timer lag;
+
+	private Counter misfires;
+
+	@Autowired(required = false)
+	public void setMeterRegistry(MeterRegistry meterRegistry) {
+		this.lag = meterRegistry.timer("leaf.trigger.lag");
+		this.misfires = meterRegistry.counter("leaf.trigger.misfires");
+		meterRegistry.gauge("leaf.trigger.scheduled", this.scheduled, ConcurrentMap::size);
+	}
+
+	@Override
+	public void afterPropertiesSet() {
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("leaf-trigger-");
+		threadFactory.setDaemon(true);
+		this.workerPool = Executors.newFixedThreadPool(this.workers, threadFactory);
+		this.wheel = new TimingWheel(this.tick, this.wheelSize, this.workerPool);
+		this.wheel.start();
+		this.cluster.register(TRIGGERS, new Cluster.ReplicatedState() {
+
+			@Override
+			public Collection<Map<String, String>> entries() {
+				List<Map<String, String>> entries = new ArrayList<>();
+				for (Trigger trigger : triggers.findAll()) {
+					entries.add(trigger.toProperties());
+				}
+				return entries;
+			}
+
+			@Override
+			public Collection<String> keys() {
+				List<String> ids = new ArrayList<>();
+				for (Trigger trigger : triggers.findAll()) {
+					ids.add(trigger.getId());
+				}
+				return ids;
+			}
+
+			@Override
+			public void put(Map<String, String> entry) {
+				Trigger trigger = Trigger.fromProperties(entry);
+				triggers.save(trigger);
+				if (cluster.owns(trigger.getId())) {
+					schedule(trigger);
+				}
+				else {
+					unschedule(trigger.getId());
+				}
+			}
+
+			@Override
+			public void remove(String key) {
+				unschedule(key);
+				triggers.delete(key);
+			}
+		});
+	}
+
+	@Override
+	public void destroy() {
+		this.wheel.stop();
+		this.workerPool.shutdownNow();
+	}
 
 	@GetMapping("/triggers")
 	public String listTriggers() {
-		return "[" + StringUtils.collectionToCommaDelimitedString(this.triggers.values()) + "]\n";
+		return "[" + StringUtils.collectionToCommaDelimitedString(this.triggers.findAll()) + "]\n";
 	}
 
+	/**
+	 * Create a trigger with either a cron expression in the body or a {@code rate} in
+	 * milliseconds.
+	 */
 	@PostMapping("/triggers/{topic}")
-	public String createTrigger(@PathVariable String topic, @RequestBody String cron) {
-		String id = UUID.randomUUID().toString();
-		Trigger trigger = new Trigger(id, topic, cron);
-		this.triggers.put(id, trigger);
-		this.scheduler.schedule(new TriggerTask(trigger), new CronTrigger(cron));
-		return id;
+	public ResponseEntity<String> createTrigger(@PathVariable String topic, @RequestBody(required = false) String cron,
+			@RequestParam(defaultValue = "0") long rate, @RequestParam(defaultValue = "1") int burst,
+			@RequestParam(required = false) String payload, @RequestParam(defaultValue = "fire") String misfire) {
+		String invalidMisfire = validateMisfire(misfire);
+		if (invalidMisfire != null) {
+			return ResponseEntity.badRequest().body(invalidMisfire + "\n");
+		}
+		Trigger trigger = new Trigger(UUID.randomUUID().toString(), topic,
+				StringUtils.hasText(cron) ? cron.trim() : null, MisfirePolicy.valueOf(misfire.toUpperCase()));
+		trigger.setRate(rate);
+		trigger.setBurst(burst);
+		trigger.setPayload(payload);
+		String invalid = validate(trigger);
+		if (invalid != null) {
+			return ResponseEntity.badRequest().body(invalid + "\n");
+		}
+		save(trigger);
+		return ResponseEntity.ok(trigger.getId());
+	}
+
+	/**
+	 * Replace the schedule of a trigger, keeping its id and topic. A cron expression in
+	 * the body or a {@code rate} replaces the schedule; anything not given is kept.
+	 */
+	@PutMapping("/triggers/{id}")
+	public ResponseEntity<String> updateTrigger(@PathVariable String id, @RequestBody(required = false) String cron,
+			@RequestParam(required = false) Long rate, @RequestParam(required = false) Integer burst,
+			@RequestParam(required = false) String payload, @RequestParam(required = false) String misfire) {
+		Trigger existing = this.triggers.get(id);
+		if (existing == null) {
+			return ResponseEntity.status(HttpStatus.NOT_FOUND).body("no trigger " + id + "\n");
+		}
+		String invalidMisfire = (misfire != null) ? validateMisfire(misfire) : null;
+		if (invalidMisfire != null) {
+			return ResponseEntity.badRequest().body(invalidMisfire + "\n");
+		}
+		boolean newCron = StringUtils.hasText(cron);
+		Trigger trigger = new Trigger(id, existing.getTopic(),
+				newCron ? cron.trim() : (rate != null) ? null : existing.getCron(),
+				(misfire != null) ? MisfirePolicy.valueOf(misfire.toUpperCase()) : existing.getMisfirePolicy());
+		trigger.setRate(newCron ? 0 : (rate != null) ? rate : existing.getRate());
+		trigger.setBurst((burst != null) ? burst : existing.getBurst());
+		trigger.setPayload((payload != null) ? payload : existing.getPayload());
+		String invalid = validate(trigger);
+		if (invalid != null) {
+			return ResponseEntity.badRequest().body(invalid + "\n");
+		}
+		save(trigger);
+		return ResponseEntity.ok(trigger + "\n");
 	}
 
-	public class Trigger {
+	@DeleteMapping("/triggers/{id}")
+	public ResponseEntity<String> deleteTrigger(@PathVariable String id) {
+		unschedule(id);
+		Trigger deleted = this.triggers.delete(id);
+		if (deleted == null) {
+			return ResponseEntity.status(HttpStatus.NOT_FOUND).body("no trigger " + id + "\n");
+		}
+		this.cluster.publishRemoval(TRIGGERS, id);
+		return ResponseEntity.ok(deleted + "\n");
+	}
 
-		private final String id;
+	@EventListener(ApplicationReadyEvent.class)
+	public void recoverTriggers() {
+		for (Trigger trigger : this.triggers.findAll()) {
+			if (this.cluster.owns(trigger.getId())) {
+				schedule(trigger);
+			}
+		}
+	}
 
-		private final String topic;
+	/**
+	 * Start firing the triggers this member now owns and stop firing the ones it no
+	 * longer owns. Triggers that stay with this member keep their schedule.
+	 */
+	@EventListener(MembershipChangedEvent.class)
+	public void rebalance() {
+		for (Trigger trigger : this.triggers.findAll()) {
+			if (!this.cluster.owns(trigger.getId())) {
+				unschedule(trigger.getId());
+			}
+			else if (!this.scheduled.containsKey(trigger.getId())) {
+				schedule(trigger);
+			}
+		}
+	}
 
-		private final String cron;
+	/**
+	 * Store a trigger created or changed on this member, fire it here if this member
+	 * owns it, and replicate it to the rest of the cluster.
+	 */
+	private void save(Trigger trigger) {
+		if (this.cluster.owns(trigger.getId())) {
+			schedule(trigger);
+		}
+		else {
+			unschedule(trigger.getId());
+		}
+		this.triggers.save(trigger);
+		this.cluster.publish(TRIGGERS, trigger.toProperties());
+	}
+
+	/**
+	 * @return why the trigger cannot be scheduled, or {@code null} if it can
+	 */
+	private static String validate(Trigger trigger) {
+		if ((trigger.getCron() != null) == (trigger.getRate() > 0)) {
+			return "a trigger needs either a cron expression or a positive rate";
+		}
+		if (trigger.getBurst() < 1) {
+			return "burst must be at least 1";
+		}
+		if (trigger.getCron() != null && !CronSequenceGenerator.isValidExpression(trigger.getCron())) {
+			return "invalid cron expression " + trigger.getCron();
+		}
+		return null;
+	}
+
+	/**
+	 * @return why the misfire policy is not accepted, or {@code null} if it is
+	 */
+	private static String validateMisfire(String misfire) {
+		for (MisfirePolicy policy : MisfirePolicy.values()) {
+			if (policy.name().equalsIgnoreCase(misfire)) {
+				return null;
+			}
+		}
+		return "unknown misfire policy '" + misfire + "', expected one of "
+				+ Arrays.toString(MisfirePolicy.values()).toLowerCase();
+	}
 
-		public Trigger(String id, String topic, String cron) {
-			this.id = id;
-			this.topic = topic;
+	/**
+	 * Schedule the trigger, replacing any earlier schedule for the same id.
+	 */
+	private void schedule(Trigger trigger) {
+		ScheduledTrigger next = new ScheduledTrigger(trigger,
+				(trigger.getCron() != null) ? new CronSequenceGenerator(trigger.getCron()) : null);
+		ScheduledTrigger previous = this.scheduled.put(trigger.getId(), next);
+		if (previous != null) {
+			previous.cancel();
+		}
+		long now = System.currentTimeMillis();
+		next.schedule((trigger.getRate() > 0) ? now + trigger.getRate() : next.nextCron(now));
+	}
+
+	private void unschedule(String id) {
+		ScheduledTrigger current = this.scheduled.remove(id);
+		if (current != null) {
+			current.cancel();
+		}
+	}
+
+	private class ScheduledTrigger {
+
+		private final Trigger trigger;
+
+		private final CronSequenceGenerator cron;
+
+		private final PayloadTemplate template;
+
+		// the timeout with the latest deadline, guarded by this
+		private TimingWheel.Timeout timeout;
+
+		private volatile boolean cancelled;
+
+		// only advanced by the single fire in progress
+		private long sequence;
+
+		ScheduledTrigger(Trigger trigger, CronSequenceGenerator cron) {
+			this.trigger = trigger;
 			this.cron = cron;
+			this.template = (trigger.getPayload() != null) ? new PayloadTemplate(trigger.getPayload()) : null;
+		}
+
+		long nextCron(long time) {
+			return this.cron.next(new Date(time)).getTime();
 		}
 
-		public String getId() {
-			return id;
+		void schedule(long deadline) {
+			// a deadline that has passed runs at once, possibly before the wheel returns,
+			// so the fire is told its scheduled time rather than reading it back
+			TimingWheel.Timeout next = wheel.schedule(() -> run(deadline), deadline);
+			synchronized (this) {
+				if (this.timeout == null || next.getDeadline() >= this.timeout.getDeadline()) {
+					this.timeout = next;
+				}
+			}
+			if (this.cancelled) {
+				next.cancel();
+			}
 		}
 
-		public String getTopic() {
-			return topic;
+		void cancel() {
+			this.cancelled = true;
+			TimingWheel.Timeout current;
+			synchronized (this) {
+				current = this.timeout;
+			}
+			if (current != null) {
+				current.cancel();
+			}
 		}
 
-		public String getCron() {
-			return cron;
+		private void run(long scheduledTime) {
+			if (this.cancelled) {
+				return;
+			}
+			long now = System.currentTimeMillis();
+			long late = now - scheduledTime;
+			long rate = this.trigger.getRate();
+			// a rate finer than the wheel's tick runs behind by whole fires, which are sent
+			// together so the rate holds on average
+			long due = (rate > 0 && late > 0) ? late / rate + 1 : 1;
+			try {
+				boolean misfired = late > misfireThreshold;
+				if (misfired && misfires != null) {
+					misfires.increment();
+				}
+				if (!misfired || this.trigger.getMisfirePolicy() == MisfirePolicy.FIRE) {
+					// a late fire is not repeated for the times it missed
+					long fires = misfired ? 1 : due;
+					for (long i = 0; i < fires; i++) {
+						fire(scheduledTime + i * rate);
+					}
+					if (lag != null) {
+						lag.record(Math.max(0, late), TimeUnit.MILLISECONDS);
+					}
+				}
+			}
+			catch (RuntimeException e) {
+				logger.warn("failed to fire trigger " + this.trigger.getId(), e);
+			}
+			finally {
+				if (!this.cancelled) {
+					schedule((rate > 0) ? scheduledTime + due * rate : nextCron(Math.max(now, scheduledTime)));
+				}
+			}
 		}
 
-		@Override
-		public String toString() {
-			return String.format("{\"id\":\"%s\",\"topic\":\"%s\",\"cron\":\"%s\"}", this.id, this.topic, this.cron);
+		private void fire(long time) {
+			int burst = this.trigger.getBurst();
+			if (this.template == null && burst == 1) {
+				gateway.sendEvent(this.trigger.getTopic(), this.trigger.getId());
+				return;
+			}
+			List<String> events = new ArrayList<>(burst);
+			for (int i = 0; i < burst; i++) {
+				long seq = this.sequence++;
+				events.add((this.template != null) ? this.template.render(this.trigger.getId(), seq, time)
+						: this.trigger.getId());
+			}
+			gateway.sendEvents(this.trigger.getTopic(), events, null);
 		}
 	}
 
-	private class TriggerTask implements Runnable {
+	/**
+	 * A payload template split once into literal text and the {@code {id}},
+	 * {@code {seq}} and {@code {time}} placeholders between them.
+	 */
+	static class PayloadTemplate {
+
+		private static final List<String> PLACEHOLDERS = Arrays.asList("id", "seq", "time");
 
-		private final String topic;
+		private final List<String> literals = new ArrayList<>();
 
-		private final String triggerId;
+		private final List<String> placeholders = new ArrayList<>();
 
-		TriggerTask(Trigger trigger) {
-			this.topic = trigger.getTopic();
-			this.triggerId = trigger.getId();
+		PayloadTemplate(String template) {
+			StringBuilder literal = new StringBuilder();
+			int index = 0;
+			while (index < template.length()) {
+				int open = template.indexOf('{', index);
+				int close = (open >= 0) ? template.indexOf('}', open) : -1;
+				if (close < 0) {
+					literal.append(template, index, template.length());
+					break;
+				}
+				String name = template.substring(open + 1, close);
+				if (PLACEHOLDERS.contains(name)) {
+					literal.append(template, index, open);
+					this.literals.add(literal.toString());
+					this.placeholders.add(name);
+					literal.setLength(0);
+					index = close + 1;
+				}
+				else {
+					// not a placeholder, such as the braces of a JSON object
+					literal.append(template, index, open + 1);
+					index = open + 1;
+				}
+			}
+			this.literals.add(literal.toString());
 		}
 
-		@Override
-		public void run() {
-			MessageChannel channel = resolver.resolveDestination(this.topic);
-			channel.send(MessageBuilder.withPayload(this.triggerId).build());
+		String render(String id, long seq, long time) {
+			if (this.placeholders.isEmpty()) {
+				return this.literals.get(0);
+			}
+			StringBuilder payload = new StringBuilder();
+			for (int i = 0; i < this.placeholders.size(); i++) {
+				payload.append(this.literals.get(i));
+				String name = this.placeholders.get(i);
+				if (name.equals("id")) {
+					payload.append(id);
+				}
+				else if (name.equals("seq")) {
+					payload.append(seq);
+				}
+				else {
+					payload.append(time);
+				}
+			}
+			return payload.append(this.literals.get(this.placeholders.size())).toString();
 		}
 	}
 }
@@ -17,6 +17,7 @@
 package io.spring.leaf.controller.repository;
 
 import java.util.Set;
+import java.util.SortedSet;
 
 import io.spring.leaf.controller.Binding;
 
@@ -29,7 +30,18 @@ public interface BindingRepository {
 
 	Set<Binding> findByInput(String topic);
 
+	Set<Binding> findByOutput(String topic);
+
+	Set<Binding> findByRunner(String runner);
+
+	/**
+	 * @return every topic used as an input or output by any binding
+	 */
+	SortedSet<String> topics();
+
 	Binding get(String name);
 
 	void save(String name, Binding binding);
+
+	Binding delete(String name);
 }
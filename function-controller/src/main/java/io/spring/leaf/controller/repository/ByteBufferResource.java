@@ -0,0 +1,74 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.spring.leaf.controller.repository;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import org.springframework.core.io.AbstractResource;
+
+/**
+ * Exposes a buffer returned by the {@link FunctionRepository} as a {@link org.springframework.core.io.Resource}
+ * so that it can be streamed to a response without first being copied into an array.
+ *
+ * @author Mark Fisher
+ */
+public class ByteBufferResource extends AbstractResource {
+
+	private final ByteBuffer buffer;
+
+	public ByteBufferResource(ByteBuffer buffer) {
+		this.buffer = buffer;
+	}
+
+	@Override
+	public String getDescription() {
+		return "byte buffer [" + this.buffer.remaining() + " bytes]";
+	}
+
+	@Override
+	public long contentLength() {
+		return this.buffer.remaining();
+	}
+
+	@Override
+	public InputStream getInputStream() {
+		final ByteBuffer source = this.buffer.duplicate();
+		return new InputStream() {
+
+			@Override
+			public int read() {
+				return source.hasRemaining() ? (source.get() & 0xff) : -1;
+			}
+
+			@Override
+			public int read(byte[] bytes, int offset, int length) {
+				if (!source.hasRemaining()) {
+					return -1;
+				}
+				int count = Math.min(length, source.remaining());
+				source.get(bytes, offset, count);
+				return count;
+			}
+
+			@Override
+			public int available() {
+				return source.remaining();
+			}
+		};
+	}
+}
@@ -16,14 +16,36 @@
 
 package io.spring.leaf.controller.repository;
 
+import java.nio.ByteBuffer;
+import java.util.List;
+
 /**
+ * Stores every version of a function's bytecode, addressed by content hash.
+ *
  * @author Mark Fisher
  */
 public interface FunctionRepository {
 
 	String[] names();
 
-	byte[] find(String name);
+	/**
+	 * @return a read-only view of the latest version's bytecode, or {@code null}
+	 */
+	ByteBuffer find(String name);
+
+	/**
+	 * @return a read-only view of the given version's bytecode, or {@code null}
+	 */
+	ByteBuffer find(String name, String version);
+
+	/**
+	 * @return the content hashes of the function's versions, oldest first
+	 */
+	List<String> versions(String name);
 
-	void save(String name, byte[] bytecode);
+	/**
+	 * Store a new version of the function, unless it is identical to the latest one.
+	 * @return the content hash identifying the version
+	 */
+	String save(String name, byte[] bytecode);
 }
@@ -16,26 +16,36 @@
 
 package io.spring.leaf.controller.repository;
 
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.Map;
 import java.util.Set;
-
-import org.springframework.stereotype.Repository;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 import io.spring.leaf.controller.Binding;
 
 /**
+ * Keeps bindings in concurrent maps with secondary indexes by input topic, output topic
+ * and runner, so lookups do not scan all bindings. Reads are lock-free; writes are
+ * serialized so that the indexes always agree with the primary map. A binding must not
+ * be modified after it has been saved.
+ *
  * @author Mark Fisher
  */
-@Repository
 public class InMemoryBindingRepository implements BindingRepository {
 
-	private final Map<String, Binding> map = new HashMap<>();
+	private final Map<String, Binding> map = new ConcurrentHashMap<>();
+
+	private final Map<String, Set<Binding>> byInput = new ConcurrentHashMap<>();
+
+	private final Map<String, Set<Binding>> byOutput = new ConcurrentHashMap<>();
+
+	private final Map<String, Set<Binding>> byRunner = new ConcurrentHashMap<>();
 
 	@Override
 	public Set<String> names() {
-		return this.map.keySet();
+		return Collections.unmodifiableSet(this.map.keySet());
 	}
 
 	@Override
@@ -44,18 +54,74 @@ public class InMemoryBindingRepository implements BindingRepository {
 	}
 
 	@Override
-	public void save(String name, Binding binding) {
-		this.map.put(name, binding);
+	public synchronized void save(String name, Binding binding) {
+		Binding previous = this.map.put(name, binding);
+		if (previous != null) {
+			unindex(previous);
+		}
+		index(this.byInput, binding.getInput(), binding);
+		index(this.byOutput, binding.getOutput(), binding);
+		index(this.byRunner, binding.getRunner(), binding);
+	}
+
+	@Override
+	public synchronized Binding delete(String name) {
+		Binding previous = this.map.remove(name);
+		if (previous != null) {
+			unindex(previous);
+		}
+		return previous;
 	}
 
 	@Override
 	public Set<Binding> findByInput(String topic) {
-		Set<Binding> results = new HashSet<>();
-		for (Binding binding : this.map.values()) {
-			if (topic.equals(binding.getInput())) {
-				results.add(binding);
+		return find(this.byInput, topic);
+	}
+
+	@Override
+	public Set<Binding> findByOutput(String topic) {
+		return find(this.byOutput, topic);
+	}
+
+	@Override
+	public Set<Binding> findByRunner(String runner) {
+		return find(this.byRunner, runner);
+	}
+
+	@Override
+	public SortedSet<String> topics() {
+		SortedSet<String> topics = new TreeSet<>(this.byInput.keySet());
+		topics.addAll(this.byOutput.keySet());
+		return topics;
+	}
+
+	private void unindex(Binding binding) {
+		unindex(this.byInput, binding.getInput(), binding);
+		unindex(this.byOutput, binding.getOutput(), binding);
+		unindex(this.byRunner, binding.getRunner(), binding);
+	}
+
+	private static Set<Binding> find(Map<String, Set<Binding>> index, String key) {
+		Set<Binding> bindings = (key != null) ? index.get(key) : null;
+		return (bindings != null) ? Collections.unmodifiableSet(bindings) : Collections.<Binding>emptySet();
+	}
+
+	private static void index(Map<String, Set<Binding>> index, String key, Binding binding) {
+		if (key != null) {
+			index.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(binding);
+		}
+	}
+
+	private static void unindex(Map<String, Set<Binding>> index, String key, Binding binding) {
+		if (key == null) {
+			return;
+		}
+		Set<Binding> bindings = index.get(key);
+		if (bindings != null) {
+			bindings.remove(binding);
+			if (bindings.isEmpty()) {
+				index.remove(key);
 			}
 		}
-		return results;
 	}
 }
@@ -0,0 +1,349 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.spring.leaf.controller.repository;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A small persistent map of string keys to string properties, kept as an append-only
+ * journal on local disk plus a periodic snapshot. Every change is appended as a
+ * length-prefixed, checksummed record; once {@code snapshotInterval} records have been
+ * appended the whole map is written to a new snapshot, atomically moved into place, and
+ * the journal is truncated. Recovery loads the snapshot and replays the journal,
+ * discarding a torn record at the tail left by a crash mid-write. An open journal holds
+ * an exclusive lock on a {@code .lock} file next to it, so a second process pointed at
+ * the same directory fails to open it instead of interleaving its writes.
+ *
+ * @author Mark Fisher
+ */
+public class Journal implements Closeable {
+
+	private static final Log logger = LogFactory.getLog(Journal.class);
+
+	private static final int SNAPSHOT_MAGIC = 0x4c454146;
+
+	private static final int MAX_RECORD_LENGTH = 1 << 24;
+
+	private static final byte PUT = 1;
+
+	private static final byte REMOVE = 2;
+
+	private final File directory;
+
+	private final File journalFile;
+
+	private final File snapshotFile;
+
+	private final File lockFile;
+
+	private final int snapshotInterval;
+
+	private final boolean fsync;
+
+	private final Map<String, Map<String, String>> state = new LinkedHashMap<>();
+
+	private FileChannel channel;
+
+	private FileChannel lockChannel;
+
+	private int appended;
+
+	/**
+	 * @param directory the directory holding the journal and snapshot files
+	 * @param name the base name of the files
+	 * @param snapshotInterval the number of appended records after which a snapshot is taken
+	 * @param fsync whether every append is forced to disk rather than only to the OS
+	 */
+	public Journal(File directory, String name, int snapshotInterval, boolean fsync) {
+		this.directory = directory;
+		this.journalFile = new File(directory, name + ".journal");
+		this.snapshotFile = new File(directory, name + ".snapshot");
+		this.lockFile = new File(directory, name + ".lock");
+		this.snapshotInterval = snapshotInterval;
+		this.fsync = fsync;
+	}
+
+	/**
+	 * Recover the persisted state and open the journal for appending.
+	 * @return the recovered entries, in the order they were first written
+	 * @throws IllegalStateException if the journal is already open, in this process or
+	 * another
+	 */
+	public synchronized Map<String, Map<String, String>> open() {
+		try {
+			if (!this.directory.exists()) {
+				this.directory.mkdirs();
+			}
+			lock();
+			if (this.snapshotFile.exists()) {
+				readSnapshot();
+			}
+			long valid = this.journalFile.exists() ? replay() : 0;
+			this.channel = FileChannel.open(this.journalFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+			if (this.channel.size() > valid) {
+				logger.warn("discarding " + (this.channel.size() - valid) + " trailing bytes of " + this.journalFile);
+				this.channel.truncate(valid);
+			}
+			this.channel.position(valid);
+		}
+		catch (IOException e) {
+			unlock();
+			throw new IllegalStateException("failed to recover journal " + this.journalFile, e);
+		}
+		return Collections.unmodifiableMap(new LinkedHashMap<>(this.state));
+	}
+
+	public synchronized void put(String key, Map<String, String> properties) {
+		Map<String, String> copy = new LinkedHashMap<>();
+		for (Map.Entry<String, String> entry : properties.entrySet()) {
+			if (entry.getValue() != null) {
+				copy.put(entry.getKey(), entry.getValue());
+			}
+		}
+		append(PUT, key, copy);
+		this.state.put(key, copy);
+		snapshotIfNecessary();
+	}
+
+	public synchronized void remove(String key) {
+		if (!this.state.containsKey(key)) {
+			return;
+		}
+		append(REMOVE, key, null);
+		this.state.remove(key);
+		snapshotIfNecessary();
+	}
+
+	/**
+	 * Write the current state to a new snapshot and truncate the journal. A crash
+	 * between the two steps is harmless because replaying the journal over the new
+	 * snapshot yields the same state.
+	 */
+	public synchronized void snapshot() {
+		File temp = new File(this.directory, this.snapshotFile.getName() + ".tmp");
+		try {
+			try (FileOutputStream file = new FileOutputStream(temp)) {
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file));
+				out.writeInt(SNAPSHOT_MAGIC);
+				out.writeInt(this.state.size());
+				for (Map.Entry<String, Map<String, String>> entry : this.state.entrySet()) {
+					writeEntry(out, entry.getKey(), entry.getValue());
+				}
+				out.flush();
+				file.getFD().sync();
+			}
+			Files.move(temp.toPath(), this.snapshotFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+			this.channel.truncate(0);
+			this.channel.position(0);
+			this.appended = 0;
+		}
+		catch (IOException e) {
+			throw new IllegalStateException("failed to write snapshot " + this.snapshotFile, e);
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		if (this.channel == null) {
+			return;
+		}
+		try {
+			this.channel.force(true);
+			this.channel.close();
+		}
+		catch (IOException e) {
+			logger.warn("failed to close journal " + this.journalFile, e);
+		}
+		this.channel = null;
+		unlock();
+	}
+
+	private void lock() throws IOException {
+		FileChannel lockChannel = FileChannel.open(this.lockFile.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE);
+		FileLock lock;
+		try {
+			lock = lockChannel.tryLock();
+		}
+		catch (OverlappingFileLockException e) {
+			lock = null;
+		}
+		if (lock == null) {
+			lockChannel.close();
+			throw new IllegalStateException("journal " + this.journalFile
+					+ " is in use by another controller, give each one a directory of its own");
+		}
+		this.lockChannel = lockChannel;
+	}
+
+	private void unlock() {
+		if (this.lockChannel == null) {
+			return;
+		}
+		try {
+			// closing the channel releases the lock
+			this.lockChannel.close();
+		}
+		catch (IOException e) {
+			logger.warn("failed to release lock " + this.lockFile, e);
+		}
+		this.lockChannel = null;
+	}
+
+	private void append(byte op, String key, Map<String, String> properties) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeByte(op);
+			if (op == PUT) {
+				writeEntry(out, key, properties);
+			}
+			else {
+				out.writeUTF(key);
+			}
+			byte[] payload = bytes.toByteArray();
+			CRC32 crc = new CRC32();
+			crc.update(payload);
+			ByteBuffer record = ByteBuffer.allocate(payload.length + 8);
+			record.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+			while (record.hasRemaining()) {
+				this.channel.write(record);
+			}
+			if (this.fsync) {
+				this.channel.force(false);
+			}
+			this.appended++;
+		}
+		catch (IOException e) {
+			throw new IllegalStateException("failed to append to journal " + this.journalFile, e);
+		}
+	}
+
+	private void snapshotIfNecessary() {
+		if (this.appended >= this.snapshotInterval) {
+			snapshot();
+		}
+	}
+
+	private void readSnapshot() throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.snapshotFile)))) {
+			if (in.readInt() != SNAPSHOT_MAGIC) {
+				throw new IOException("not a snapshot: " + this.snapshotFile);
+			}
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				String key = in.readUTF();
+				this.state.put(key, readProperties(in));
+			}
+		}
+	}
+
+	/**
+	 * Apply every complete, intact record in the journal.
+	 * @return the length of the valid prefix of the journal
+	 */
+	private long replay() throws IOException {
+		long valid = 0;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.journalFile)))) {
+			while (true) {
+				int length;
+				try {
+					length = in.readInt();
+				}
+				catch (EOFException e) {
+					break;
+				}
+				if (length <= 0 || length > MAX_RECORD_LENGTH) {
+					break;
+				}
+				byte[] payload = new byte[length];
+				int checksum;
+				try {
+					checksum = in.readInt();
+					in.readFully(payload);
+				}
+				catch (EOFException e) {
+					break;
+				}
+				CRC32 crc = new CRC32();
+				crc.update(payload);
+				if ((int) crc.getValue() != checksum) {
+					break;
+				}
+				apply(new DataInputStream(new ByteArrayInputStream(payload)));
+				valid += length + 8;
+				this.appended++;
+			}
+		}
+		return valid;
+	}
+
+	private void apply(DataInputStream record) throws IOException {
+		byte op = record.readByte();
+		String key = record.readUTF();
+		if (op == PUT) {
+			this.state.put(key, readProperties(record));
+		}
+		else if (op == REMOVE) {
+			this.state.remove(key);
+		}
+	}
+
+	private static void writeEntry(DataOutputStream out, String key, Map<String, String> properties) throws IOException {
+		out.writeUTF(key);
+		out.writeInt(properties.size());
+		for (Map.Entry<String, String> property : properties.entrySet()) {
+			out.writeUTF(property.getKey());
+			out.writeUTF(property.getValue());
+		}
+	}
+
+	private static Map<String, String> readProperties(DataInputStream in) throws IOException {
+		int count = in.readInt();
+		Map<String, String> properties = new LinkedHashMap<>();
+		for (int i = 0; i < count; i++) {
+			properties.put(in.readUTF(), in.readUTF());
+		}
+		return properties;
+	}
+}
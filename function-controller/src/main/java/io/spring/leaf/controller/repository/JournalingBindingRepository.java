@@ -0,0 +1,74 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.spring.leaf.controller.repository;
+
+import java.io.File;
+import java.util.Map;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+
+import io.spring.leaf.controller.Binding;
+
+/**
+ * Persists bindings to a {@link Journal} under {@code leaf.store.directory} and serves
+ * reads from the in-memory indexes, which are rebuilt from the journal on startup.
+ *
+ * @author Mark Fisher
+ */
+@Repository
+public class JournalingBindingRepository extends InMemoryBindingRepository implements InitializingBean, DisposableBean {
+
+	@Value("${leaf.store.directory:/tmp/leaf-store}")
+	private String directory;
+
+	@Value("${leaf.store.snapshot-interval:10000}")
+	private int snapshotInterval;
+
+	@Value("${leaf.store.fsync:false}")
+	private boolean fsync;
+
+	private Journal journal;
+
+	@Override
+	public void afterPropertiesSet() {
+		this.journal = new Journal(new File(this.directory), "bindings", this.snapshotInterval, this.fsync);
+		for (Map<String, String> properties : this.journal.open().values()) {
+			Binding binding = Binding.fromProperties(properties);
+			super.save(binding.getName(), binding);
+		}
+	}
+
+	@Override
+	public void destroy() {
+		this.journal.close();
+	}
+
+	@Override
+	public synchronized void save(String name, Binding binding) {
+		this.journal.put(name, binding.toProperties());
+		super.save(name, binding);
+	}
+
+	@Override
+	public synchronized Binding delete(String name) {
+		this.journal.remove(name);
+		return super.delete(name);
+	}
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.spring.leaf.controller.repository;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+
+import io.spring.leaf.controller.Runner;
+
+/**
+ * Persists runners, their instances and the bindings activated on them to a single
+ * {@link Journal}, using a key prefix per kind of entry.
+ *
+ * @author Mark Fisher
+ */
+@Repository
+public class JournalingRunnerRepository implements RunnerRepository, InitializingBean, DisposableBean {
+
+	private static final String RUNNER_PREFIX = "runner:";
+
+	private static final String INSTANCE_PREFIX = "instance:";
+
+	private static final String ACTIVATION_PREFIX = "activation:";
+
+	@Value("${leaf.store.directory:/tmp/leaf-store}")
+	private String directory;
+
+	@Value("${leaf.store.snapshot-interval:10000}")
+	private int snapshotInterval;
+
+	@Value("${leaf.store.fsync:false}")
+	private boolean fsync;
+
+	private Journal journal;
+
+	private final Map<String, Runner> runners = new ConcurrentHashMap<>();
+
+	private final Map<String, Map<String, String>> instances = new ConcurrentHashMap<>();
+
+	private final Map<String, String> instanceRunners = new ConcurrentHashMap<>();
+
+	private final Set<String> activations = ConcurrentHashMap.newKeySet();
+
+	@Override
+	public void afterPropertiesSet() {
+		this.journal = new Journal(new File(this.directory), "runners", this.snapshotInterval, this.fsync);
+		for (Map.Entry<String, Map<String, String>> entry : this.journal.open().entrySet()) {
+			String key = entry.getKey();
+			Map<String, String> properties = entry.getValue();
+			if (key.startsWith(RUNNER_PREFIX)) {
+				Runner runner = Runner.fromProperties(properties);
+				this.runners.put(runner.getName(), runner);
+			}
+			else if (key.startsWith(INSTANCE_PREFIX)) {
+				addInstance(properties.get("runner"), key.substring(INSTANCE_PREFIX.length()), properties.get("deploymentId"));
+			}
+			else if (key.startsWith(ACTIVATION_PREFIX)) {
+				this.activations.add(key.substring(ACTIVATION_PREFIX.length()));
+			}
+		}
+	}
+
+	@Override
+	public void destroy() {
+		this.journal.close();
+	}
+
+	@Override
+	public Collection<Runner> findAll() {
+		return Collections.unmodifiableCollection(this.runners.values());
+	}
+
+	@Override
+	public Runner get(String name) {
+		return this.runners.get(name);
+	}
+
+	@Override
+	public synchronized void save(Runner runner) {
+		this.journal.put(RUNNER_PREFIX + runner.getName(), runner.toProperties());
+		this.runners.put(runner.getName(), runner);
+	}
+
+	@Override
+	public Map<String, String> findInstances(String runner) {
+		Map<String, String> deployments = this.instances.get(runner);
+		return (deployments != null) ? Collections.unmodifiableMap(deployments) : Collections.<String, String>emptyMap();
+	}
+
+	@Override
+	public synchronized void saveInstance(String runner, String instance, String deploymentId) {
+		Map<String, String> properties = new HashMap<>();
+		properties.put("runner", runner);
+		properties.put("deploymentId", deploymentId);
+		this.journal.put(INSTANCE_PREFIX + instance, properties);
+		addInstance(runner, instance, deploymentId);
+	}
+
+	@Override
+	public synchronized void deleteInstance(String instance) {
+		String runner = this.instanceRunners.remove(instance);
+		if (runner != null) {
+			this.journal.remove(INSTANCE_PREFIX + instance);
+			this.instances.get(runner).remove(instance);
+		}
+	}
+
+	@Override
+	public Set<String> findActivations() {
+		return Collections.unmodifiableSet(this.activations);
+	}
+
+	@Override
+	public synchronized void saveActivation(String binding) {
+		if (this.activations.add(binding)) {
+			this.journal.put(ACTIVATION_PREFIX + binding, Collections.<String, String>emptyMap());
+		}
+	}
+
+	@Override
+	public synchronized void deleteActivation(String binding) {
+		if (this.activations.remove(binding)) {
+			this.journal.remove(ACTIVATION_PREFIX + binding);
+		}
+	}
+
+	private void addInstance(String runner, String instance, String deploymentId) {
+		this.instances.computeIfAbsent(runner, r -> new ConcurrentHashMap<>()).put(instance, deploymentId);
+		this.instanceRunners.put(instance, runner);
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.spring.leaf.controller.repository;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+
+import io.spring.leaf.controller.Trigger;
+
+/**
+ * Persists triggers to a {@link Journal} so that they are rescheduled after a restart.
+ *
+ * @author Mark Fisher
+ */
+@Repository
+public class JournalingTriggerRepository implements TriggerRepository, InitializingBean, DisposableBean {
+
+	@Value("${leaf.store.directory:/tmp/leaf-store}")
+	private String directory;
+
+	@Value("${leaf.store.snapshot-interval:10000}")
+	private int snapshotInterval;
+
+	@Value("${leaf.store.fsync:false}")
+	private boolean fsync;
+
+	private Journal journal;
+
+	private final Map<String, Trigger> triggers = new ConcurrentHashMap<>();
+
+	@Override
+	public void afterPropertiesSet() {
+		this.journal = new Journal(new File(this.directory), "triggers", this.snapshotInterval, this.fsync);
+		for (Map<String, String> properties : this.journal.open().values()) {
+			Trigger trigger = Trigger.fromProperties(properties);
+			this.triggers.put(trigger.getId(), trigger);
+		}
+	}
+
+	@Override
+	public void destroy() {
+		this.journal.close();
+	}
+
+	@Override
+	public Collection<Trigger> findAll() {
+		return Collections.unmodifiableCollection(this.triggers.values());
+	}
+
+	@Override
+	public Trigger get(String id) {
+		return this.triggers.get(id);
+	}
+
+	@Override
+	public synchronized void save(Trigger trigger) {
+		this.journal.put(trigger.getId(), trigger.toProperties());
+		this.triggers.put(trigger.getId(), trigger);
+	}
+
+	@Override
+	public synchronized Trigger delete(String id) {
+		this.journal.remove(id);
+		return this.triggers.remove(id);
+	}
+}
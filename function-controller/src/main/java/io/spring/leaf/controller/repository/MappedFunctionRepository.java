@@ -0,0 +1,267 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.spring.leaf.controller.repository;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Content-addressed function store. Bytecode is appended to fixed-size segment files
+ * that are memory-mapped, so lookups return views of the mapped buffers instead of
+ * reading into a fresh array. Identical bytecode is stored once. The name to version and
+ * hash to location indexes are kept in a {@link Journal}, and a blob is only indexed
+ * once its bytes have been forced to disk, so a crash never exposes a partial write.
+ *
+ * @author Mark Fisher
+ */
+@Repository
+public class MappedFunctionRepository implements FunctionRepository, InitializingBean, DisposableBean {
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private static final String BLOB_PREFIX = "blob:";
+
+	private static final String VERSION_PREFIX = "version:";
+
+	@Value("${leaf.registry.directory:/tmp/leaf-registry}")
+	private String directory = "/tmp/leaf-registry";
+
+	@Value("${leaf.registry.segment-size:67108864}")
+	private int segmentSize = 64 * 1024 * 1024;
+
+	@Value("${leaf.store.snapshot-interval:10000}")
+	private int snapshotInterval = 10000;
+
+	@Value("${leaf.store.fsync:false}")
+	private boolean fsync;
+
+	private Journal index;
+
+	private final List<Segment> segments = new CopyOnWriteArrayList<>();
+
+	private final Map<String, Location> blobs = new ConcurrentHashMap<>();
+
+	private final Map<String, List<String>> versions = new ConcurrentHashMap<>();
+
+	private volatile String[] names = new String[0];
+
+	@Override
+	public void afterPropertiesSet() throws IOException {
+		File base = new File(this.directory);
+		this.index = new Journal(base, "index", this.snapshotInterval, this.fsync);
+		Map<Integer, Integer> ends = new HashMap<>();
+		for (Map.Entry<String, Map<String, String>> entry : this.index.open().entrySet()) {
+			Map<String, String> properties = entry.getValue();
+			if (entry.getKey().startsWith(BLOB_PREFIX)) {
+				Location location = new Location(Integer.parseInt(properties.get("segment")),
+						Integer.parseInt(properties.get("offset")), Integer.parseInt(properties.get("length")));
+				this.blobs.put(entry.getKey().substring(BLOB_PREFIX.length()), location);
+				Integer end = ends.get(location.segment);
+				ends.put(location.segment, Math.max((end != null) ? end : 0, location.offset + location.length));
+			}
+			else if (entry.getKey().startsWith(VERSION_PREFIX)) {
+				this.versions.computeIfAbsent(properties.get("name"), n -> new CopyOnWriteArrayList<>())
+						.add(properties.get("hash"));
+			}
+		}
+		for (int id = 0; new File(base, segmentName(id)).exists(); id++) {
+			File file = new File(base, segmentName(id));
+			Segment segment = map(file, id, file.length());
+			Integer end = ends.get(id);
+			segment.end = (end != null) ? end : 0;
+			this.segments.add(segment);
+		}
+		refreshNames();
+	}
+
+	@Override
+	public void destroy() {
+		this.index.close();
+	}
+
+	@Override
+	public String[] names() {
+		return this.names;
+	}
+
+	@Override
+	public ByteBuffer find(String name) {
+		List<String> hashes = this.versions.get(name);
+		if (hashes == null || hashes.isEmpty()) {
+			return null;
+		}
+		return read(hashes.get(hashes.size() - 1));
+	}
+
+	@Override
+	public ByteBuffer find(String name, String version) {
+		List<String> hashes = this.versions.get(name);
+		return (hashes != null && hashes.contains(version)) ? read(version) : null;
+	}
+
+	@Override
+	public List<String> versions(String name) {
+		List<String> hashes = this.versions.get(name);
+		return (hashes != null) ? Collections.unmodifiableList(hashes) : Collections.<String>emptyList();
+	}
+
+	@Override
+	public synchronized String save(String name, byte[] bytecode) {
+		String hash = hash(bytecode);
+		if (!this.blobs.containsKey(hash)) {
+			this.blobs.put(hash, write(hash, bytecode));
+		}
+		List<String> hashes = this.versions.get(name);
+		if (hashes == null) {
+			hashes = new CopyOnWriteArrayList<>();
+			this.versions.put(name, hashes);
+			refreshNames();
+		}
+		if (!hashes.isEmpty() && hashes.get(hashes.size() - 1).equals(hash)) {
+			return hash;
+		}
+		// saving an older version again makes it the latest
+		if (hashes.remove(hash)) {
+			this.index.remove(VERSION_PREFIX + name + ":" + hash);
+		}
+		Map<String, String> properties = new HashMap<>();
+		properties.put("name", name);
+		properties.put("hash", hash);
+		this.index.put(VERSION_PREFIX + name + ":" + hash, properties);
+		hashes.add(hash);
+		return hash;
+	}
+
+	public static String hash(byte[] content) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+			char[] chars = new char[digest.length * 2];
+			for (int i = 0; i < digest.length; i++) {
+				chars[i * 2] = HEX[(digest[i] >> 4) & 0xf];
+				chars[i * 2 + 1] = HEX[digest[i] & 0xf];
+			}
+			return new String(chars);
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 not available", e);
+		}
+	}
+
+	private ByteBuffer read(String hash) {
+		Location location = this.blobs.get(hash);
+		if (location == null) {
+			return null;
+		}
+		ByteBuffer view = this.segments.get(location.segment).buffer.duplicate();
+		view.position(location.offset);
+		view.limit(location.offset + location.length);
+		return view.slice().asReadOnlyBuffer();
+	}
+
+	private Location write(String hash, byte[] bytecode) {
+		Segment segment = this.segments.isEmpty() ? null : this.segments.get(this.segments.size() - 1);
+		if (segment == null || segment.end + bytecode.length > segment.buffer.capacity()) {
+			int id = this.segments.size();
+			try {
+				segment = map(new File(this.directory, segmentName(id)), id, Math.max(this.segmentSize, bytecode.length));
+			}
+			catch (IOException e) {
+				throw new IllegalStateException("failed to create function segment " + id, e);
+			}
+			this.segments.add(segment);
+		}
+		ByteBuffer target = segment.buffer.duplicate();
+		target.position(segment.end);
+		target.put(bytecode);
+		segment.buffer.force();
+		Location location = new Location(segment.id, segment.end, bytecode.length);
+		segment.end += bytecode.length;
+		Map<String, String> properties = new HashMap<>();
+		properties.put("segment", String.valueOf(location.segment));
+		properties.put("offset", String.valueOf(location.offset));
+		properties.put("length", String.valueOf(location.length));
+		this.index.put(BLOB_PREFIX + hash, properties);
+		return location;
+	}
+
+	private void refreshNames() {
+		String[] names = this.versions.keySet().toArray(new String[0]);
+		Arrays.sort(names);
+		this.names = names;
+	}
+
+	private static Segment map(File file, int id, long size) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			if (raf.length() < size) {
+				raf.setLength(size);
+			}
+			// the mapping stays valid after the file is closed
+			return new Segment(id, raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size));
+		}
+	}
+
+	private static String segmentName(int id) {
+		return String.format("segment-%05d.dat", id);
+	}
+
+	private static class Segment {
+
+		private final int id;
+
+		private final MappedByteBuffer buffer;
+
+		private int end;
+
+		Segment(int id, MappedByteBuffer buffer) {
+			this.id = id;
+			this.buffer = buffer;
+		}
+	}
+
+	private static class Location {
+
+		private final int segment;
+
+		private final int offset;
+
+		private final int length;
+
+		Location(int segment, int offset, int length) {
+			this.segment = segment;
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+}
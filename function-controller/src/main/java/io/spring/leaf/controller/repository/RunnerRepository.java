@@ -0,0 +1,56 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.spring.leaf.controller.repository;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+import io.spring.leaf.controller.Runner;
+
+/**
+ * Registered runners together with the deployment state the controller needs to adopt
+ * running instances after a restart.
+ *
+ * @author Mark Fisher
+ */
+public interface RunnerRepository {
+
+	Collection<Runner> findAll();
+
+	Runner get(String name);
+
+	void save(Runner runner);
+
+	/**
+	 * @return the deployment ids of the runner's instances, keyed by instance name
+	 */
+	Map<String, String> findInstances(String runner);
+
+	void saveInstance(String runner, String instance, String deploymentId);
+
+	void deleteInstance(String instance);
+
+	/**
+	 * @return the names of the bindings that have been handed to a runner
+	 */
+	Set<String> findActivations();
+
+	void saveActivation(String binding);
+
+	void deleteActivation(String binding);
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.spring.leaf.controller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import org.springframework.cloud.stream.binding.BinderAwareChannelResolver;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * @author Mark Fisher
+ */
+public class ClusterTests {
+
+	private final List<Message<?>> sent = new ArrayList<>();
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	@Before
+	public void setup() {
+		this.sent.clear();
+	}
+
+	@Test
+	public void establishedMemberSendsItsStateToNewcomersOnly() throws Exception {
+		Cluster a = member("a", 60000);
+		MapState state = new MapState("x", "y");
+		a.register("things", state);
+		heartbeat(a, "b");
+		a.checkMembers();
+		List<Message<?>> sync = sentOfType("things");
+		assertEquals(3, sync.size());
+		for (Message<?> message : sync) {
+			assertEquals("b", message.getHeaders().get("leafClusterTo"));
+		}
+		// a member of the previous view ignores the snapshot
+		Cluster c = member("c", 60000);
+		MapState other = new MapState("z");
+		c.register("things", other);
+		for (Message<?> message : sync) {
+			c.receive(message);
+		}
+		assertEquals(Collections.singleton("z"), other.entries.keySet());
+	}
+
+	@Test
+	public void restartedMemberDoesNotPushItsRecoveredState() throws Exception {
+		// restarted just now, with entries recovered from its journal
+		// the lowest member, which sent its state under the old rule
+		Cluster restarted = member("a", 0);
+		restarted.register("things", new MapState("x", "removed-while-away"));
+		heartbeat(restarted, "b");
+		heartbeat(restarted, "c");
+		restarted.checkMembers();
+		assertTrue(sentOfType("things").isEmpty());
+	}
+
+	@Test
+	public void rejoiningMemberIsBroughtUpToDate() throws Exception {
+		Cluster existing = member("a", 60000);
+		MapState current = new MapState("x");
+		existing.register("things", current);
+		heartbeat(existing, "c");
+		existing.checkMembers();
+		this.sent.clear();
+
+		Cluster rejoined = member("b", 0);
+		MapState stale = new MapState("x", "removed-while-away");
+		stale.entries.get("x").put("value", "old");
+		rejoined.register("things", stale);
+		recoveredKeys(rejoined).put("things", new HashSet<>(stale.keys()));
+		current.entries.get("x").put("value", "new");
+
+		heartbeat(rejoined, "a");
+		heartbeat(rejoined, "c");
+		rejoined.checkMembers();
+		heartbeat(existing, "b");
+		heartbeat(existing, "c");
+		existing.checkMembers();
+		assertTrue(sentOfType("things").size() > 0);
+		for (Message<?> message : new ArrayList<>(this.sent)) {
+			rejoined.receive(message);
+			existing.receive(message);
+		}
+		assertEquals(Collections.singleton("x"), stale.entries.keySet());
+		assertEquals("new", stale.entries.get("x").get("value"));
+		assertEquals("new", current.entries.get("x").get("value"));
+	}
+
+	@Test
+	public void joiningMemberOwnsNothingUntilMembershipSettles() throws Exception {
+		Cluster joining = member("a", 0);
+		assertFalse(joining.owns("x"));
+		heartbeat(joining, "b");
+		joining.checkMembers();
+		assertFalse(joining.owns("x"));
+		ApplicationEventPublisher publisher = mock(ApplicationEventPublisher.class);
+		ReflectionTestUtils.setField(joining, "publisher", publisher);
+		ReflectionTestUtils.setField(joining, "startTime", System.currentTimeMillis() - 60000);
+		joining.checkMembers();
+		verify(publisher).publishEvent(any(MembershipChangedEvent.class));
+		int owned = 0;
+		for (int i = 0; i < 100; i++) {
+			owned += joining.owns("key-" + i) ? 1 : 0;
+		}
+		assertTrue(owned > 0 && owned < 100);
+	}
+
+	private Cluster member(String id, long uptime) {
+		Cluster cluster = new Cluster();
+		MessageChannel channel = mock(MessageChannel.class);
+		when(channel.send(any(Message.class))).thenAnswer(new Answer<Boolean>() {
+
+			@Override
+			public Boolean answer(InvocationOnMock invocation) throws Throwable {
+				Message<?> message = (Message<?>) invocation.getArguments()[0];
+				if (!"heartbeat".equals(message.getHeaders().get("leafClusterType"))) {
+					ClusterTests.this.sent.add(message);
+				}
+				return true;
+			}
+		});
+		BinderAwareChannelResolver resolver = mock(BinderAwareChannelResolver.class);
+		when(resolver.resolveDestination(Cluster.CLUSTER_TOPIC)).thenReturn(channel);
+		ReflectionTestUtils.setField(cluster, "enabled", true);
+		ReflectionTestUtils.setField(cluster, "memberId", id);
+		ReflectionTestUtils.setField(cluster, "resolver", resolver);
+		ReflectionTestUtils.setField(cluster, "publisher", mock(ApplicationEventPublisher.class));
+		ReflectionTestUtils.setField(cluster, "objectMapper", this.objectMapper);
+		cluster.afterPropertiesSet();
+		ReflectionTestUtils.setField(cluster, "startTime", System.currentTimeMillis() - uptime);
+		return cluster;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, Set<String>> recoveredKeys(Cluster cluster) {
+		// what start() remembers of the journals
+		return (Map<String, Set<String>>) ReflectionTestUtils.getField(cluster, "recoveredKeys");
+	}
+
+	private void heartbeat(Cluster cluster, String from) throws Exception {
+		cluster.receive(MessageBuilder.withPayload(this.objectMapper.writeValueAsBytes(
+				Collections.singletonMap("url", "http://" + from)))
+				.setHeader("leafClusterMember", from)
+				.setHeader("leafClusterType", "heartbeat")
+				.build());
+	}
+
+	private List<Message<?>> sentOfType(String type) {
+		List<Message<?>> results = new ArrayList<>();
+		for (Message<?> message : this.sent) {
+			if (type.equals(message.getHeaders().get("leafClusterType"))) {
+				results.add(message);
+			}
+		}
+		return results;
+	}
+
+	private static class MapState implements Cluster.ReplicatedState {
+
+		private final Map<String, Map<String, String>> entries = new TreeMap<>();
+
+		MapState(String... keys) {
+			for (String key : keys) {
+				Map<String, String> entry = new TreeMap<>();
+				entry.put("key", key);
+				this.entries.put(key, entry);
+			}
+		}
+
+		@Override
+		public Collection<Map<String, String>> entries() {
+			return new ArrayList<>(this.entries.values());
+		}
+
+		@Override
+		public Collection<String> keys() {
+			return new ArrayList<>(this.entries.keySet());
+		}
+
+		@Override
+		public void put(Map<String, String> entry) {
+			this.entries.put(entry.get("key"), new TreeMap<>(entry));
+		}
+
+		@Override
+		public void remove(String key) {
+			this.entries.remove(key);
+		}
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.spring.leaf.controller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * @author Mark Fisher
+ */
+public class ConsistentHashRingTests {
+
+	private static final int KEYS = 10000;
+
+	@Test
+	public void emptyRingOwnsNothing() {
+		assertNull(new ConsistentHashRing(Collections.<String>emptySet(), 100).owner("binding"));
+	}
+
+	@Test
+	public void keysAreSpreadAcrossMembers() {
+		ConsistentHashRing ring = new ConsistentHashRing(Arrays.asList("a", "b", "c"), 100);
+		Map<String, Integer> counts = new HashMap<>();
+		for (int i = 0; i < KEYS; i++) {
+			counts.merge(ring.owner("key-" + i), 1, Integer::sum);
+		}
+		assertEquals(3, counts.size());
+		for (int count : counts.values()) {
+			assertTrue("unbalanced: " + counts, count > KEYS / 5 && count < KEYS / 2);
+		}
+	}
+
+	@Test
+	public void joiningMemberOnlyTakesKeys() {
+		ConsistentHashRing before = new ConsistentHashRing(Arrays.asList("a", "b", "c"), 100);
+		ConsistentHashRing after = new ConsistentHashRing(Arrays.asList("a", "b", "c", "d"), 100);
+		int moved = 0;
+		for (int i = 0; i < KEYS; i++) {
+			String key = "key-" + i;
+			if (!before.owner(key).equals(after.owner(key))) {
+				assertEquals("d", after.owner(key));
+				moved++;
+			}
+		}
+		assertTrue("moved " + moved, moved > KEYS / 8 && moved < KEYS / 2);
+	}
+
+	@Test
+	public void ownershipDoesNotDependOnOrder() {
+		ConsistentHashRing one = new ConsistentHashRing(Arrays.asList("a", "b", "c"), 100);
+		ConsistentHashRing other = new ConsistentHashRing(Arrays.asList("c", "a", "b"), 100);
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(one.owner("key-" + i), other.owner("key-" + i));
+		}
+	}
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.spring.leaf.controller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import org.springframework.cloud.deployer.spi.app.AppDeployer;
+import org.springframework.cloud.deployer.spi.core.AppDeploymentRequest;
+import org.springframework.cloud.stream.binding.BinderAwareChannelResolver;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageDeliveryException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.spring.leaf.controller.Deployer.BindingState;
+import io.spring.leaf.controller.repository.BindingRepository;
+import io.spring.leaf.controller.repository.RunnerRepository;
+
+/**
+ * @author Mark Fisher
+ */
+public class DeployerTests {
+
+	private final Deployer deployer = new Deployer();
+
+	private final AppDeployer appDeployer = mock(AppDeployer.class);
+
+	private final MessageChannel bootstrapChannel = mock(MessageChannel.class);
+
+	private final Binding binding = new Binding("words", "uppercase", "shared");
+
+	@Before
+	public void setup() {
+		BindingRepository bindingRepository = mock(BindingRepository.class);
+		when(bindingRepository.findByInput("words")).thenReturn(Collections.singleton(this.binding));
+		when(bindingRepository.get("words")).thenReturn(this.binding);
+		when(bindingRepository.findByRunner("shared")).thenReturn(Collections.singleton(this.binding));
+		BinderAwareChannelResolver resolver = mock(BinderAwareChannelResolver.class);
+		when(resolver.resolveDestination("runner-shared")).thenReturn(this.bootstrapChannel);
+		ResourceLoader resourceLoader = mock(ResourceLoader.class);
+		when(resourceLoader.getResource("file:runner.jar")).thenReturn(mock(Resource.class));
+		when(this.appDeployer.deploy(any(AppDeploymentRequest.class))).thenReturn("runner.shared-0",
+				"runner.shared-1", "runner.shared-2");
+		ReflectionTestUtils.setField(this.deployer, "bindingRepository", bindingRepository);
+		ReflectionTestUtils.setField(this.deployer, "runnerRepository", mock(RunnerRepository.class));
+		ReflectionTestUtils.setField(this.deployer, "channelResolver", resolver);
+		ReflectionTestUtils.setField(this.deployer, "runnerStats", mock(RunnerStatsCollector.class));
+		ReflectionTestUtils.setField(this.deployer, "registry", mock(FunctionRegistryController.class));
+		ReflectionTestUtils.setField(this.deployer, "meterRegistry", new SimpleMeterRegistry());
+		ReflectionTestUtils.setField(this.deployer, "cluster", new Cluster());
+		ReflectionTestUtils.setField(this.deployer, "appDeployer", this.appDeployer);
+		ReflectionTestUtils.setField(this.deployer, "resourceLoader", resourceLoader);
+		BrokerAdmin brokerAdmin = mock(BrokerAdmin.class);
+		when(brokerAdmin.isShared()).thenReturn(true);
+		ReflectionTestUtils.setField(this.deployer, "brokerAdmin", brokerAdmin);
+		this.deployer.afterPropertiesSet();
+		this.binding.setInput("words");
+		this.deployer.deployRunner("shared", "file:runner.jar", true, null);
+	}
+
+	@After
+	public void tearDown() {
+		this.deployer.destroy();
+	}
+
+	@Test
+	public void burstOfMessagesActivatesBindingOnce() throws Exception {
+		when(this.bootstrapChannel.send(any(Message.class))).thenReturn(true);
+		ExecutorService consumers = Executors.newFixedThreadPool(8);
+		for (int i = 0; i < 400; i++) {
+			consumers.execute(() -> this.deployer.deployIfNecessary("words"));
+		}
+		consumers.shutdown();
+		consumers.awaitTermination(10, TimeUnit.SECONDS);
+		awaitState(BindingState.RUNNING);
+		verify(this.bootstrapChannel, times(1)).send(any(Message.class));
+		// only the shared runner itself was launched
+		verify(this.appDeployer, times(1)).deploy(any(AppDeploymentRequest.class));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void runnersAreNotLaunchedOverAnInProcessBinder() {
+		BrokerAdmin brokerAdmin = mock(BrokerAdmin.class);
+		when(brokerAdmin.isShared()).thenReturn(false);
+		ReflectionTestUtils.setField(this.deployer, "brokerAdmin", brokerAdmin);
+		this.deployer.deployRunner("shared");
+	}
+
+	@Test
+	public void activationDoesNotBlockTheConsumer() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		when(this.bootstrapChannel.send(any(Message.class))).thenAnswer(new Answer<Boolean>() {
+
+			@Override
+			public Boolean answer(InvocationOnMock invocation) throws Throwable {
+				release.await(10, TimeUnit.SECONDS);
+				return true;
+			}
+		});
+		this.deployer.deployIfNecessary("words");
+		assertNotEquals(BindingState.RUNNING, this.deployer.getState("words"));
+		release.countDown();
+		awaitState(BindingState.RUNNING);
+	}
+
+	@Test
+	public void failedActivationIsRetriedByTheNextMessage() throws Exception {
+		when(this.bootstrapChannel.send(any(Message.class))).thenThrow(new MessageDeliveryException("unreachable"))
+				.thenReturn(true);
+		this.deployer.deployIfNecessary("words");
+		awaitState(BindingState.FAILED);
+		this.deployer.deployIfNecessary("words");
+		awaitState(BindingState.RUNNING);
+		verify(this.bootstrapChannel, times(2)).send(any(Message.class));
+	}
+
+	@Test
+	public void scalingDownSharedRunnerKeepsAnInstanceForActiveBindings() throws Exception {
+		when(this.bootstrapChannel.send(any(Message.class))).thenReturn(true);
+		this.deployer.scaleRunnerPool("shared", 2);
+		this.deployer.deployIfNecessary("words");
+		awaitState(BindingState.RUNNING);
+		assertEquals("decremented pool for runner shared by 2\n", this.deployer.scaleRunnerPool("shared", -5));
+		verify(this.appDeployer).undeploy("runner.shared-2");
+		verify(this.appDeployer).undeploy("runner.shared-1");
+		verify(this.appDeployer, never()).undeploy("runner.shared-0");
+		assertEquals("runner.shared-0\n", this.deployer.getRunnerStatus("shared"));
+	}
+
+	@Test
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public void deactivatingBindingOnSharedRunnerOnlyUndeploysItsFunction() throws Exception {
+		when(this.bootstrapChannel.send(any(Message.class))).thenReturn(true);
+		this.deployer.deployIfNecessary("words");
+		awaitState(BindingState.RUNNING);
+		this.deployer.deactivate("words");
+		ArgumentCaptor<Message> captor = ArgumentCaptor.forClass(Message.class);
+		verify(this.bootstrapChannel, times(2)).send(captor.capture());
+		Map<String, String> request = (Map<String, String>) captor.getValue().getPayload();
+		assertEquals("undeploy", request.get("action"));
+		assertEquals("words", request.get("name"));
+		verify(this.appDeployer, never()).undeploy(anyString());
+		assertNull(this.deployer.getState("words"));
+	}
+
+	@Test
+	public void scalingUpInactiveBindingActivatesItOnce() throws Exception {
+		when(this.bootstrapChannel.send(any(Message.class))).thenReturn(true);
+		this.deployer.scaleBindingPool("words", 1);
+		awaitState(BindingState.RUNNING);
+		// the monitor no longer activates it
+		this.deployer.deployIfNecessary("words");
+		verify(this.bootstrapChannel, times(1)).send(any(Message.class));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void bindingOnSharedRunnerIsNotScaledDown() {
+		this.deployer.scaleBindingPool("words", -1);
+	}
+
+	@Test
+	public void instanceOfAnotherMemberIsUndeployedByThatMember() {
+		Cluster cluster = mock(Cluster.class);
+		when(cluster.isEnabled()).thenReturn(true);
+		ReflectionTestUtils.setField(this.deployer, "cluster", cluster);
+		this.deployer.undeployInstance("shared-other-0");
+		verify(cluster).publish("undeploys", Collections.singletonMap("instance", "shared-other-0"));
+		verify(this.appDeployer, never()).undeploy(anyString());
+	}
+
+	private void awaitState(BindingState expected) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (this.deployer.getState("words") != expected && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(expected, this.deployer.getState("words"));
+	}
+}
@@ -16,7 +16,11 @@
 
 package io.spring.leaf.controller;
 
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 
 import org.springframework.boot.test.context.SpringBootTest;
@@ -26,9 +30,25 @@ import org.springframework.test.context.junit4.SpringRunner;
  * @author Mark Fisher
  */
 @RunWith(SpringRunner.class)
-@SpringBootTest
+@SpringBootTest(properties = "spring.cloud.stream.defaultBinder=local")
 public class FunctionContollerServerTests {
 
+	@ClassRule
+	public static TemporaryFolder folder = new TemporaryFolder();
+
+	@BeforeClass
+	public static void useTemporaryDirectories() throws Exception {
+		// the journals are locked, so the defaults would clash with a running controller
+		System.setProperty("leaf.store.directory", folder.newFolder("store").getPath());
+		System.setProperty("leaf.registry.directory", folder.newFolder("registry").getPath());
+	}
+
+	@AfterClass
+	public static void clearDirectories() {
+		System.clearProperty("leaf.store.directory");
+		System.clearProperty("leaf.registry.directory");
+	}
+
 	@Test
 	public void contextLoads() {
 	}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.spring.leaf.controller;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import org.springframework.cloud.stream.binder.Binder;
+import org.springframework.cloud.stream.binder.BinderFactory;
+import org.springframework.cloud.stream.binder.Binding;
+import org.springframework.cloud.stream.binder.ConsumerProperties;
+import org.springframework.cloud.stream.binding.BinderAwareChannelResolver;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import io.spring.leaf.controller.FunctionGateway.ReplyMode;
+
+/**
+ * @author Mark Fisher
+ */
+public class FunctionGatewayTests {
+
+	private final FunctionGateway gateway = new FunctionGateway();
+
+	private final BinderAwareChannelResolver resolver = mock(BinderAwareChannelResolver.class);
+
+	private final MessageChannel channel = mock(MessageChannel.class);
+
+	@Before
+	public void setup() {
+		when(this.channel.send(any(Message.class))).thenReturn(true);
+		when(this.resolver.resolveDestination("words")).thenReturn(this.channel);
+		ReflectionTestUtils.setField(this.gateway, "resolver", this.resolver);
+	}
+
+	@After
+	public void tearDown() {
+		this.gateway.destroy();
+	}
+
+	@Test
+	public void replyCompletesPendingRequest() {
+		DeferredResult<ResponseEntity<byte[]>> result = this.gateway.sendRequest("words", "hello".getBytes(),
+				"text/plain", ReplyMode.HTTP);
+		assertEquals(1, this.gateway.getPendingReplyCount());
+		assertEquals("ack\n", this.gateway.handleReply(1, "HELLO".getBytes(), null));
+		assertEquals("HELLO\n", body(result));
+		assertEquals(0, this.gateway.getPendingReplyCount());
+	}
+
+	@Test
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public void brokerReplyIsCorrelatedById() {
+		BinderFactory binderFactory = mock(BinderFactory.class);
+		Binder binder = mock(Binder.class);
+		when(binderFactory.getBinder(null, MessageChannel.class)).thenReturn(binder);
+		when(binder.bindConsumer(any(String.class), any(String.class), any(MessageChannel.class),
+				any(ConsumerProperties.class))).thenReturn(mock(Binding.class));
+		ReflectionTestUtils.setField(this.gateway, "binderFactory", binderFactory);
+		DeferredResult<ResponseEntity<byte[]>> result = this.gateway.sendRequest("words", "hello".getBytes(),
+				"text/plain", ReplyMode.BROKER);
+		ArgumentCaptor<Message> captor = ArgumentCaptor.forClass(Message.class);
+		verify(this.channel).send(captor.capture());
+		MessageHeaders headers = captor.getValue().getHeaders();
+		String replyTopic = (String) headers.get("gatewayReplyTopic");
+		verify(binder).bindConsumer(eq(replyTopic), any(String.class), any(MessageChannel.class),
+				any(ConsumerProperties.class));
+		assertFalse(headers.containsKey("gatewayReplyTo"));
+		this.gateway.handleReply(MessageBuilder.withPayload("HELLO".getBytes())
+				.setHeader("gatewayCorrelationId", headers.get("gatewayCorrelationId")).build());
+		assertEquals("HELLO\n", body(result));
+		assertEquals(0, this.gateway.getPendingReplyCount());
+	}
+
+	@Test
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public void binaryRequestAndReplyAreNotDecoded() {
+		byte[] request = { 0, 1, 2, (byte) 0xff };
+		DeferredResult<ResponseEntity<byte[]>> result = this.gateway.sendRequest("words", request,
+				"application/octet-stream", ReplyMode.HTTP);
+		ArgumentCaptor<Message> captor = ArgumentCaptor.forClass(Message.class);
+		verify(this.channel).send(captor.capture());
+		assertSame(request, captor.getValue().getPayload());
+		assertEquals("application/octet-stream", captor.getValue().getHeaders().get(MessageHeaders.CONTENT_TYPE));
+		byte[] reply = { (byte) 0xfe, 0, (byte) 0x80 };
+		this.gateway.handleReply(MessageBuilder.withPayload(reply)
+				.setHeader("gatewayCorrelationId", 1L)
+				.setHeader(MessageHeaders.CONTENT_TYPE, "application/octet-stream").build());
+		ResponseEntity<byte[]> response = (ResponseEntity<byte[]>) result.getResult();
+		assertArrayEquals(reply, response.getBody());
+		assertEquals(MediaType.APPLICATION_OCTET_STREAM, response.getHeaders().getContentType());
+	}
+
+	@Test
+	public void channelIsResolvedOncePerTopic() {
+		this.gateway.sendEvent("words", "a");
+		this.gateway.sendEvent("words", "b");
+		verify(this.resolver, times(1)).resolveDestination("words");
+	}
+
+	@Test
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public void binaryEventIsSentUndecoded() {
+		byte[] event = { 0, 1, 2, (byte) 0xff };
+		this.gateway.sendEvent("words", event, "application/octet-stream");
+		ArgumentCaptor<Message> captor = ArgumentCaptor.forClass(Message.class);
+		verify(this.channel).send(captor.capture());
+		assertSame(event, captor.getValue().getPayload());
+		assertEquals("application/octet-stream", captor.getValue().getHeaders().get(MessageHeaders.CONTENT_TYPE));
+	}
+
+	@Test
+	public void expiredRequestIsEvicted() throws Exception {
+		ReflectionTestUtils.setField(this.gateway, "replyTimeout", 10L);
+		DeferredResult<ResponseEntity<byte[]>> result = this.gateway.sendRequest("words", "hello".getBytes(),
+				"text/plain", ReplyMode.HTTP);
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!result.isSetOrExpired() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(50);
+		}
+		assertTrue(result.getResult() instanceof IllegalStateException);
+		assertEquals(0, this.gateway.getPendingReplyCount());
+		assertFalse(this.gateway.handleReply(1, "late".getBytes(), null).startsWith("ack"));
+	}
+
+	@SuppressWarnings("unchecked")
+	private static String body(DeferredResult<ResponseEntity<byte[]>> result) {
+		return new String(((ResponseEntity<byte[]>) result.getResult()).getBody(), StandardCharsets.UTF_8);
+	}
+}
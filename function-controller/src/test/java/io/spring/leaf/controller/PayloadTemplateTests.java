@@ -0,0 +1,47 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.spring.leaf.controller;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import io.spring.leaf.controller.TriggerController.PayloadTemplate;
+
+/**
+ * @author Mark Fisher
+ */
+public class PayloadTemplateTests {
+
+	@Test
+	public void placeholdersAreReplaced() {
+		PayloadTemplate template = new PayloadTemplate("{id}-{seq}@{time}");
+		assertEquals("t1-7@1000", template.render("t1", 7, 1000));
+	}
+
+	@Test
+	public void otherBracesAreKept() {
+		PayloadTemplate template = new PayloadTemplate("{\"seq\":{seq},\"tag\":\"{x}\"}");
+		assertEquals("{\"seq\":42,\"tag\":\"{x}\"}", template.render("t1", 42, 0));
+	}
+
+	@Test
+	public void templateWithoutPlaceholdersIsConstant() {
+		assertEquals("ping", new PayloadTemplate("ping").render("t1", 1, 2));
+		assertEquals("{", new PayloadTemplate("{").render("t1", 1, 2));
+	}
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.spring.leaf.controller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Mark Fisher
+ */
+public class TimingWheelTests {
+
+	private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+	// a small wheel, so that most deadlines go through the coarser levels
+	private final TimingWheel wheel = new TimingWheel(5, 8, this.executor);
+
+	@Before
+	public void setup() {
+		this.wheel.start();
+	}
+
+	@After
+	public void tearDown() {
+		this.wheel.stop();
+		this.executor.shutdownNow();
+	}
+
+	@Test
+	public void runsEveryTimeoutNoEarlierThanItsDeadline() throws Exception {
+		int count = 2000;
+		final CountDownLatch latch = new CountDownLatch(count);
+		final AtomicInteger early = new AtomicInteger();
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < count; i++) {
+			final long deadline = now + ThreadLocalRandom.current().nextInt(1000);
+			this.wheel.schedule(new Runnable() {
+
+				@Override
+				public void run() {
+					if (System.currentTimeMillis() < deadline) {
+						early.incrementAndGet();
+					}
+					latch.countDown();
+				}
+			}, deadline);
+		}
+		assertTrue(latch.await(10, TimeUnit.SECONDS));
+		assertEquals(0, early.get());
+	}
+
+	@Test
+	public void pastDeadlineRunsImmediately() throws Exception {
+		final CountDownLatch latch = new CountDownLatch(1);
+		this.wheel.schedule(new Runnable() {
+
+			@Override
+			public void run() {
+				latch.countDown();
+			}
+		}, System.currentTimeMillis() - 1000);
+		assertTrue(latch.await(1, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void cancelledTimeoutDoesNotRun() throws Exception {
+		final AtomicBoolean ran = new AtomicBoolean();
+		TimingWheel.Timeout timeout = this.wheel.schedule(new Runnable() {
+
+			@Override
+			public void run() {
+				ran.set(true);
+			}
+		}, System.currentTimeMillis() + 100);
+		timeout.cancel();
+		Thread.sleep(300);
+		assertFalse(ran.get());
+	}
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.spring.leaf.controller.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import io.spring.leaf.controller.Binding;
+
+/**
+ * @author Mark Fisher
+ */
+public class InMemoryBindingRepositoryTests {
+
+	private final InMemoryBindingRepository repository = new InMemoryBindingRepository();
+
+	@Test
+	public void indexesByTopicAndRunner() {
+		this.repository.save("a", binding("a", "runner1", "in", "mid"));
+		this.repository.save("b", binding("b", "runner1", "mid", null));
+		this.repository.save("c", binding("c", "runner2", "in", null));
+		assertEquals(2, this.repository.findByInput("in").size());
+		assertEquals(1, this.repository.findByOutput("mid").size());
+		assertEquals(2, this.repository.findByRunner("runner1").size());
+		assertEquals(Arrays.asList("in", "mid"), Arrays.asList(this.repository.topics().toArray()));
+	}
+
+	@Test
+	public void replacingAndDeletingUpdatesIndexes() {
+		this.repository.save("a", binding("a", "runner1", "in", null));
+		this.repository.save("a", binding("a", "runner2", "other", null));
+		assertTrue(this.repository.findByInput("in").isEmpty());
+		assertTrue(this.repository.findByRunner("runner1").isEmpty());
+		assertEquals(1, this.repository.findByInput("other").size());
+		this.repository.delete("a");
+		assertTrue(this.repository.findByInput("other").isEmpty());
+		assertTrue(this.repository.topics().isEmpty());
+		assertTrue(this.repository.names().isEmpty());
+	}
+
+	private static Binding binding(String name, String runner, String input, String output) {
+		Binding binding = new Binding(name, "function", runner);
+		binding.setInput(input);
+		binding.setOutput(output);
+		return binding;
+	}
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.spring.leaf.controller.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Mark Fisher
+ */
+public class JournalTests {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void replaysJournalAfterSnapshot() throws Exception {
+		File directory = this.folder.getRoot();
+		Journal journal = new Journal(directory, "test", 3, false);
+		journal.open();
+		journal.put("a", Collections.singletonMap("value", "1"));
+		journal.put("b", Collections.singletonMap("value", "2"));
+		journal.put("c", Collections.singletonMap("value", "3"));
+		journal.remove("a");
+		journal.put("b", Collections.singletonMap("value", "4"));
+		journal.close();
+		Map<String, Map<String, String>> recovered = new Journal(directory, "test", 3, false).open();
+		assertFalse(recovered.containsKey("a"));
+		assertEquals("4", recovered.get("b").get("value"));
+		assertEquals("3", recovered.get("c").get("value"));
+	}
+
+	@Test
+	public void discardsTornRecord() throws Exception {
+		File directory = this.folder.getRoot();
+		Journal journal = new Journal(directory, "test", 100, false);
+		journal.open();
+		journal.put("a", Collections.singletonMap("value", "1"));
+		journal.put("b", Collections.singletonMap("value", "2"));
+		journal.close();
+		File file = new File(directory, "test.journal");
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(raf.length() - 3);
+		}
+		journal = new Journal(directory, "test", 100, false);
+		Map<String, Map<String, String>> recovered = journal.open();
+		assertTrue(recovered.containsKey("a"));
+		assertFalse(recovered.containsKey("b"));
+		journal.put("c", Collections.singletonMap("value", "3"));
+		journal.close();
+		recovered = new Journal(directory, "test", 100, false).open();
+		assertEquals("3", recovered.get("c").get("value"));
+	}
+
+	@Test
+	public void journalInUseIsNotOpenedTwice() throws Exception {
+		File directory = this.folder.getRoot();
+		Journal journal = new Journal(directory, "test", 100, false);
+		journal.open();
+		try {
+			new Journal(directory, "test", 100, false).open();
+			fail("expected the journal to be locked");
+		}
+		catch (IllegalStateException e) {
+			assertTrue(e.getMessage().contains("in use"));
+		}
+		journal.close();
+		new Journal(directory, "test", 100, false).open();
+	}
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.spring.leaf.controller.repository;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * @author Mark Fisher
+ */
+public class MappedFunctionRepositoryTests {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void versionsSurviveReopen() throws Exception {
+		MappedFunctionRepository repository = open();
+		String v1 = repository.save("upper", new byte[] { 1, 2, 3 });
+		String v2 = repository.save("upper", new byte[] { 4, 5 });
+		assertEquals(v2, repository.save("upper", new byte[] { 4, 5 }));
+		repository.save("lower", new byte[] { 1, 2, 3 });
+		repository.destroy();
+		repository = open();
+		assertEquals(Arrays.asList(v1, v2), repository.versions("upper"));
+		assertArrayEquals(new byte[] { 4, 5 }, bytes(repository.find("upper")));
+		assertArrayEquals(new byte[] { 1, 2, 3 }, bytes(repository.find("upper", v1)));
+		assertArrayEquals(new String[] { "lower", "upper" }, repository.names());
+		assertNull(repository.find("lower", v2));
+	}
+
+	@Test
+	public void rollsOverToNewSegment() throws Exception {
+		MappedFunctionRepository repository = open();
+		repository.save("a", new byte[12]);
+		repository.save("b", new byte[] { 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7 });
+		repository.save("c", new byte[40]);
+		repository.destroy();
+		repository = open();
+		assertArrayEquals(new byte[] { 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7 }, bytes(repository.find("b")));
+		assertEquals(40, repository.find("c").remaining());
+	}
+
+	private MappedFunctionRepository open() throws Exception {
+		MappedFunctionRepository repository = new MappedFunctionRepository();
+		ReflectionTestUtils.setField(repository, "directory", this.folder.getRoot().getPath());
+		ReflectionTestUtils.setField(repository, "segmentSize", 16);
+		repository.afterPropertiesSet();
+		return repository;
+	}
+
+	private static byte[] bytes(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.duplicate().get(bytes);
+		return bytes;
+	}
+}
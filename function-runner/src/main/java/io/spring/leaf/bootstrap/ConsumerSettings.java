@@ -0,0 +1,113 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.spring.leaf.bootstrap;
+
+import java.util.Map;
+
+/**
+ * How a deployed function consumes its input, as carried by the deployment request.
+ * Concurrency is the number of consumer threads and prefetch the number of unacknowledged
+ * messages the broker sends each of them; {@code maxInFlight} caps the messages the
+ * function works on at once, by lowering concurrency or, for a streaming function, by
+ * bounding the messages buffered ahead of it. Prefetch is a RabbitMQ consumer setting
+ * and is ignored by other binders.
+ *
+ * @author Mark Fisher
+ */
+class ConsumerSettings {
+
+	private final boolean streaming;
+
+	private final int batchSize;
+
+	private final String batchTimeout;
+
+	private final int concurrency;
+
+	private final Integer prefetch;
+
+	private final Integer maxInFlight;
+
+	ConsumerSettings(Map<String, String> deploymentRequest) {
+		this.streaming = deploymentRequest.get("output") != null
+				&& Boolean.parseBoolean(deploymentRequest.get("streaming"));
+		this.batchSize = parse(deploymentRequest.get("batchSize"), 1);
+		this.batchTimeout = deploymentRequest.get("batchTimeout");
+		this.concurrency = parse(deploymentRequest.get("concurrency"), 1);
+		this.prefetch = parse(deploymentRequest.get("prefetch"));
+		this.maxInFlight = parse(deploymentRequest.get("maxInFlight"));
+	}
+
+	boolean isStreaming() {
+		return this.streaming;
+	}
+
+	boolean isBatching() {
+		return !this.streaming && this.batchSize > 1;
+	}
+
+	int getBatchSize() {
+		return this.batchSize;
+	}
+
+	/**
+	 * @return the batch timeout in milliseconds, or {@code null} for the default
+	 */
+	String getBatchTimeout() {
+		return this.batchTimeout;
+	}
+
+	int getConcurrency() {
+		if (this.maxInFlight == null || this.streaming) {
+			return this.concurrency;
+		}
+		int perThread = isBatching() ? this.batchSize : 1;
+		return Math.max(1, Math.min(this.concurrency, this.maxInFlight / perThread));
+	}
+
+	/**
+	 * @return the broker prefetch, at least one batch, or {@code null} for the binder default
+	 */
+	Integer getPrefetch() {
+		if (isBatching()) {
+			return (this.prefetch != null) ? Math.max(this.prefetch, this.batchSize) : this.batchSize;
+		}
+		return this.prefetch;
+	}
+
+	/**
+	 * @return whether the binder, or the default binder if none is named, honours prefetch
+	 */
+	static boolean isPrefetchSupported(String binder) {
+		return binder == null || binder.isEmpty() || "rabbit".equals(binder);
+	}
+
+	/**
+	 * @return the number of messages buffered ahead of a streaming function
+	 */
+	int getStreamingPrefetch(int defaultPrefetch) {
+		return (this.maxInFlight != null) ? this.maxInFlight : defaultPrefetch;
+	}
+
+	private static int parse(String value, int defaultValue) {
+		return (value != null) ? Integer.parseInt(value) : defaultValue;
+	}
+
+	private static Integer parse(String value) {
+		return (value != null) ? Integer.valueOf(value) : null;
+	}
+}
@@ -16,45 +16,164 @@
 
 package io.spring.leaf.bootstrap;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.builder.SpringApplicationBuilder;
 import org.springframework.cloud.stream.annotation.EnableBinding;
 import org.springframework.cloud.stream.annotation.StreamListener;
 import org.springframework.cloud.stream.binding.BindingService;
 import org.springframework.cloud.stream.messaging.Sink;
+import org.springframework.context.ApplicationContextInitializer;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.util.StringUtils;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.spring.leaf.invoker.BatchingFunctionInvoker;
 import io.spring.leaf.invoker.FunctionConfiguration;
 import io.spring.leaf.invoker.FunctionInvokingProcessor;
 import io.spring.leaf.invoker.FunctionInvokingSink;
+import io.spring.leaf.invoker.StreamingFunctionInvoker;
 
 /**
+ * Receives deployment requests on the runner's bootstrap topic. A dedicated runner
+ * boots a child context for the single function it is asked to run and then stops
+ * listening; a shared runner ({@code spring.cloud.faas.runner.shared=true}) keeps
+ * listening and hosts every requested function in its {@link FunctionHost}, until an
+ * undeploy request ({@code action=undeploy}) for the binding's name removes it. A
+ * dedicated runner is undeployed as a whole, so an idle one ignores undeploy requests.
+ *
  * @author Mark Fisher
  */
 @EnableBinding(Sink.class)
 public class FunctionBootstrappingListener {
 
+	private static final Log logger = LogFactory.getLog(FunctionBootstrappingListener.class);
+
+	private static final String UNDEPLOY = "undeploy";
+
 	@Autowired
 	private BindingService bindingService;
 
+	@Autowired(required = false)
+	private FunctionHost functionHost;
+
+	@Autowired
+	private FunctionBytecodeFetcher fetcher;
+
+	@Value("${spring.cloud.faas.runner.instance:}")
+	private String instance;
+
+	@Value("${spring.cloud.stream.defaultBinder:}")
+	private String defaultBinder;
+
+	@Autowired(required = false)
+	private MeterRegistry meterRegistry;
+
+	@Bean
+	@ConditionalOnProperty("spring.cloud.faas.runner.shared")
+	public FunctionHost functionHost() {
+		return new FunctionHost();
+	}
+
+	@Bean
+	public FunctionBytecodeFetcher functionBytecodeFetcher(
+			@Value("${spring.cloud.faas.function.cache-directory:${java.io.tmpdir}/leaf-functions}") String directory) {
+		return new FunctionBytecodeFetcher(new File(directory));
+	}
+
 	@StreamListener(Sink.INPUT)
 	public void handle(Map<String, String> deploymentRequest) throws IOException {
+		if (UNDEPLOY.equals(deploymentRequest.get("action"))) {
+			if (this.functionHost != null) {
+				this.functionHost.undeploy(deploymentRequest.get("name"));
+			}
+			return;
+		}
+		if (this.functionHost != null) {
+			this.functionHost.deploy(deploymentRequest);
+			return;
+		}
 		List<String> args = new ArrayList<>();
-		args.add("--spring.cloud.faas.function.resource=" + deploymentRequest.get("function"));
+		// a fused pipeline has one location and one hash per stage
+		String[] locations = StringUtils.commaDelimitedListToStringArray(deploymentRequest.get("function"));
+		String[] hashes = StringUtils.commaDelimitedListToStringArray(deploymentRequest.get("functionHash"));
+		String[] resources = new String[locations.length];
+		for (int i = 0; i < locations.length; i++) {
+			resources[i] = this.fetcher.resolve(locations[i], (i < hashes.length) ? hashes[i] : null);
+		}
+		args.add("--spring.cloud.faas.function.resource=" + StringUtils.arrayToCommaDelimitedString(resources));
 		args.add("--spring.cloud.stream.bindings.input.destination=" + deploymentRequest.get("input"));
 		args.add("--spring.cloud.stream.bindings.input.group=default");
+		if (!StringUtils.isEmpty(this.defaultBinder)) {
+			// the function context binds through the same binder as this runner
+			args.add("--spring.cloud.stream.defaultBinder=" + this.defaultBinder);
+		}
+		if (!StringUtils.isEmpty(this.instance)) {
+			args.add("--spring.cloud.faas.runner.instance=" + this.instance);
+		}
+		if (deploymentRequest.get("name") != null) {
+			args.add("--spring.cloud.faas.binding.name=" + deploymentRequest.get("name"));
+		}
+		if (deploymentRequest.get("contentType") != null) {
+			args.add("--spring.cloud.faas.function.content-type=" + deploymentRequest.get("contentType"));
+		}
+		String output = deploymentRequest.get("output");
+		ConsumerSettings settings = new ConsumerSettings(deploymentRequest);
+		args.add("--spring.cloud.stream.bindings.input.consumer.concurrency=" + settings.getConcurrency());
+		if (settings.getPrefetch() != null && !ConsumerSettings.isPrefetchSupported(this.defaultBinder)) {
+			logger.info("ignoring prefetch of " + deploymentRequest.get("name") + ", the " + this.defaultBinder
+					+ " binder does not support it");
+		}
+		else if (settings.getPrefetch() != null) {
+			args.add("--spring.cloud.stream.rabbit.bindings.input.consumer.prefetch=" + settings.getPrefetch());
+		}
 		Class<?> functionInvokerClass = FunctionInvokingSink.class;
-		if (deploymentRequest.get("output") != null) {
-			args.add("--spring.cloud.stream.bindings.output.destination=" + deploymentRequest.get("output"));
+		if (settings.isStreaming()) {
+			args.add("--spring.cloud.stream.bindings.output.destination=" + output);
+			args.add("--spring.cloud.faas.function.streaming=true");
+			args.add("--spring.cloud.faas.function.prefetch=" + settings.getStreamingPrefetch(256));
+			functionInvokerClass = StreamingFunctionInvoker.class;
+		}
+		else if (settings.isBatching()) {
+			args.add("--spring.cloud.faas.function.batch-size=" + settings.getBatchSize());
+			if (settings.getBatchTimeout() != null) {
+				args.add("--spring.cloud.faas.function.batch-timeout=" + settings.getBatchTimeout());
+			}
+			if (output != null) {
+				args.add("--spring.cloud.faas.function.output=" + output);
+			}
+			// the handler acknowledges each batch once it has been processed
+			args.add("--spring.cloud.stream.rabbit.bindings.input.consumer.acknowledgeMode=MANUAL");
+			functionInvokerClass = BatchingFunctionInvoker.class;
+		}
+		else if (output != null) {
+			args.add("--spring.cloud.stream.bindings.output.destination=" + output);
 			functionInvokerClass = FunctionInvokingProcessor.class;
 		}
-		new SpringApplicationBuilder(functionInvokerClass, FunctionConfiguration.class)
-				.web(false) // parent?
-				.run(args.toArray(new String[args.size()]));
+		SpringApplicationBuilder builder = new SpringApplicationBuilder(functionInvokerClass, FunctionConfiguration.class)
+				.web(false); // parent?
+		if (this.meterRegistry != null) {
+			// share the registry so function metrics are served by this runner's endpoint
+			builder.initializers(new ApplicationContextInitializer<ConfigurableApplicationContext>() {
+
+				@Override
+				public void initialize(ConfigurableApplicationContext context) {
+					context.getBeanFactory().registerSingleton("meterRegistry", meterRegistry);
+				}
+			});
+		}
+		builder.run(args.toArray(new String[args.size()]));
 		this.bindingService.unbindConsumers(Sink.INPUT);
 	}
 }
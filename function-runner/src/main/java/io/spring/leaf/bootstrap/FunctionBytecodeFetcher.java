@@ -0,0 +1,130 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.spring.leaf.bootstrap;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.util.UriComponentsBuilder;
+
+/**
+ * Resolves the function location in a deployment request to a local file. Bytecode
+ * served by the controller's registry is fetched over HTTP and kept in an on-disk cache
+ * named by content hash, so a pinned version that is already cached needs no request at
+ * all, and an unpinned location is revalidated with a conditional GET. Any other
+ * location is used as is.
+ *
+ * @author Mark Fisher
+ */
+public class FunctionBytecodeFetcher {
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final File directory;
+
+	private final RestTemplate restTemplate = new RestTemplate();
+
+	private final Map<String, String> latestVersions = new ConcurrentHashMap<>();
+
+	public FunctionBytecodeFetcher(File directory) {
+		this.directory = directory;
+		if (!directory.exists()) {
+			directory.mkdirs();
+		}
+	}
+
+	/**
+	 * @param location the function location sent by the controller
+	 * @param version the content hash of the version to run, or {@code null} for the latest
+	 * @return a location the function can be loaded from
+	 */
+	public String resolve(String location, String version) {
+		if (!location.startsWith("http:") && !location.startsWith("https:")) {
+			return location;
+		}
+		HttpHeaders headers = new HttpHeaders();
+		String cachedVersion = null;
+		if (version != null) {
+			File cached = new File(this.directory, version);
+			if (cached.exists()) {
+				return cached.toURI().toString();
+			}
+			location = UriComponentsBuilder.fromHttpUrl(location).queryParam("version", version).toUriString();
+		}
+		else {
+			cachedVersion = this.latestVersions.get(location);
+			if (cachedVersion != null && new File(this.directory, cachedVersion).exists()) {
+				headers.setIfNoneMatch("\"" + cachedVersion + "\"");
+			}
+		}
+		ResponseEntity<byte[]> response =
+				this.restTemplate.exchange(location, HttpMethod.GET, new HttpEntity<Void>(headers), byte[].class);
+		if (response.getStatusCode() == HttpStatus.NOT_MODIFIED) {
+			return new File(this.directory, cachedVersion).toURI().toString();
+		}
+		byte[] bytecode = response.getBody();
+		String hash = hash(bytecode);
+		if (version != null && !version.equals(hash)) {
+			throw new IllegalStateException("bytecode from " + location + " does not match version " + version);
+		}
+		File file = store(hash, bytecode);
+		if (version == null) {
+			this.latestVersions.put(location, hash);
+		}
+		return file.toURI().toString();
+	}
+
+	private File store(String hash, byte[] bytecode) {
+		File file = new File(this.directory, hash);
+		try {
+			File temp = File.createTempFile(hash, ".tmp", this.directory);
+			Files.write(temp.toPath(), bytecode);
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch (IOException e) {
+			throw new IllegalStateException("failed to cache function bytecode in " + this.directory, e);
+		}
+		return file;
+	}
+
+	private static String hash(byte[] content) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+			char[] chars = new char[digest.length * 2];
+			for (int i = 0; i < digest.length; i++) {
+				chars[i * 2] = HEX[(digest[i] >> 4) & 0xf];
+				chars[i * 2 + 1] = HEX[digest[i] & 0xf];
+			}
+			return new String(chars);
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 not available", e);
+		}
+	}
+}
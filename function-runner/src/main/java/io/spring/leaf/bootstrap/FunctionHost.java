@@ -0,0 +1,246 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.spring.leaf.bootstrap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.function.compiler.proxy.ByteCodeLoadingFunction;
+import org.springframework.cloud.stream.binder.Binder;
+import org.springframework.cloud.stream.binder.BinderFactory;
+import org.springframework.cloud.stream.binding.BinderAwareChannelResolver;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.StringUtils;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.spring.leaf.invoker.FunctionPipeline;
+import io.spring.leaf.invoker.InvocationCounter;
+import io.spring.leaf.invoker.InvocationStatsReporter;
+import io.spring.leaf.invoker.PayloadCodec;
+import io.spring.leaf.invoker.PayloadCodecs;
+import io.spring.leaf.invoker.ReplySender;
+import reactor.core.publisher.Flux;
+
+/**
+ * Hosts many functions in a single runner JVM. Each deployment loads the function
+ * bytecode through its own {@link ByteCodeLoadingFunction} class loader and binds its
+ * channels directly, so adding a function takes milliseconds rather than a context boot.
+ * Loaded functions are kept by the content hash of their bytecode, so redeploying an
+ * unchanged function skips both the fetch and the class definition; a loaded function
+ * is dropped once no hosted binding uses its hash any more. Bytecode is resolved
+ * through the {@link FunctionBytecodeFetcher}, so it does not need to be on this host.
+ * The invocation counts of every hosted binding are reported separately, as a dedicated
+ * runner's {@link InvocationStatsReporter} does for its one binding, so the controller
+ * can scale an idle binding to zero without stopping the runner.
+ *
+ * @author Mark Fisher
+ */
+public class FunctionHost implements InitializingBean, DisposableBean {
+
+	private static final Log logger = LogFactory.getLog(FunctionHost.class);
+
+	@Autowired
+	private BinderFactory binderFactory;
+
+	@Autowired
+	private BinderAwareChannelResolver resolver;
+
+	@Autowired
+	private ResourceLoader resourceLoader;
+
+	@Autowired
+	private FunctionBytecodeFetcher fetcher;
+
+	@Value("${spring.cloud.faas.function.prefetch:256}")
+	private int prefetch;
+
+	@Value("${spring.cloud.stream.defaultBinder:}")
+	private String defaultBinder;
+
+	@Value("${spring.cloud.faas.runner.instance:}")
+	private String instance;
+
+	@Value("${spring.cloud.faas.stats.interval:5000}")
+	private long statsInterval = 5000;
+
+	@Autowired(required = false)
+	private MeterRegistry meterRegistry;
+
+	@Autowired(required = false)
+	private List<PayloadCodec> additionalCodecs;
+
+	private ReplySender replySender;
+
+	private PayloadCodecs codecs;
+
+	private final ConcurrentMap<String, Queue<HostedFunction>> functions = new ConcurrentHashMap<>();
+
+	private final ConcurrentMap<String, Function<Flux<Object>, Flux<Object>>> loadedFunctions =
+			new ConcurrentHashMap<>();
+
+	private final ConcurrentMap<String, Set<String>> hashesByName = new ConcurrentHashMap<>();
+
+	private ScheduledExecutorService statsExecutor;
+
+	@Override
+	public void afterPropertiesSet() {
+		this.replySender = new ReplySender(this.resolver);
+		this.codecs = new PayloadCodecs(null, this.additionalCodecs);
+		if (StringUtils.hasText(this.instance)) {
+			CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("leaf-stats-");
+			threadFactory.setDaemon(true);
+			this.statsExecutor = Executors.newSingleThreadScheduledExecutor(threadFactory);
+			this.statsExecutor.scheduleWithFixedDelay(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						reportStats();
+					}
+					catch (RuntimeException e) {
+						logger.warn("failed to report invocation stats", e);
+					}
+				}
+			}, this.statsInterval, this.statsInterval, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	public void deploy(Map<String, String> deploymentRequest) {
+		String name = deploymentRequest.get("name");
+		if (name == null) {
+			name = deploymentRequest.get("input");
+		}
+		// a fused pipeline has one location and one hash per stage
+		String[] locations = StringUtils.commaDelimitedListToStringArray(deploymentRequest.get("function"));
+		String[] hashes = StringUtils.commaDelimitedListToStringArray(deploymentRequest.get("functionHash"));
+		List<Function<Flux<Object>, Flux<Object>>> stages = new ArrayList<>();
+		for (int i = 0; i < locations.length; i++) {
+			String location = locations[i];
+			String hash = (i < hashes.length) ? hashes[i] : null;
+			stages.add((hash != null)
+					? this.loadedFunctions.computeIfAbsent(hash, k -> load(location, hash))
+					: load(location, null));
+		}
+		if (deploymentRequest.get("prefetch") != null && !ConsumerSettings.isPrefetchSupported(this.defaultBinder)) {
+			logger.info("ignoring prefetch of " + name + ", the " + this.defaultBinder + " binder does not support it");
+		}
+		Function<Flux<Object>, Flux<Object>> function = FunctionPipeline.compose(stages);
+		HostedFunction hosted = new HostedFunction(function, this.replySender,
+				new InvocationCounter(this.meterRegistry, name), this.codecs);
+		hosted.start(getBinder(), deploymentRequest, this.prefetch);
+		this.functions.computeIfAbsent(name, k -> new ConcurrentLinkedQueue<>()).add(hosted);
+		this.hashesByName.computeIfAbsent(name, k -> ConcurrentHashMap.newKeySet()).addAll(Arrays.asList(hashes));
+	}
+
+	/**
+	 * Stop and remove the functions deployed under the name, so a binding that was
+	 * deactivated or given a new version no longer consumes here.
+	 */
+	public void undeploy(String name) {
+		Queue<HostedFunction> hosted = this.functions.remove(name);
+		if (hosted != null) {
+			logger.info("undeploying " + hosted.size() + " instances of function " + name);
+			for (HostedFunction function : hosted) {
+				function.stop();
+			}
+		}
+		Set<String> hashes = this.hashesByName.remove(name);
+		if (hashes != null) {
+			for (String hash : hashes) {
+				if (!isHashInUse(hash)) {
+					this.loadedFunctions.remove(hash);
+				}
+			}
+		}
+	}
+
+	public Set<String> names() {
+		return this.functions.keySet();
+	}
+
+	@Override
+	public void destroy() {
+		if (this.statsExecutor != null) {
+			this.statsExecutor.shutdownNow();
+		}
+		for (String name : this.functions.keySet()) {
+			undeploy(name);
+		}
+	}
+
+	/**
+	 * Publish the invocation and in-flight counts of each hosted binding.
+	 */
+	void reportStats() {
+		MessageChannel stats = this.resolver.resolveDestination(InvocationStatsReporter.STATS_TOPIC);
+		for (Map.Entry<String, Queue<HostedFunction>> entry : this.functions.entrySet()) {
+			long invocations = 0;
+			int inFlight = 0;
+			for (HostedFunction hosted : entry.getValue()) {
+				invocations += hosted.getInvocationCounter().get();
+				inFlight += hosted.getInvocationCounter().getInFlight();
+			}
+			stats.send(InvocationStatsReporter.statsMessage(this.instance, entry.getKey(), invocations, inFlight));
+		}
+	}
+
+	private boolean isHashInUse(String hash) {
+		for (Set<String> hashes : this.hashesByName.values()) {
+			if (hashes.contains(hash)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private Function<Flux<Object>, Flux<Object>> load(String location, String version) {
+		ByteCodeLoadingFunction<Flux<Object>, Flux<Object>> function =
+				new ByteCodeLoadingFunction<>(this.resourceLoader.getResource(this.fetcher.resolve(location, version)));
+		try {
+			function.afterPropertiesSet();
+		}
+		catch (Exception e) {
+			throw new IllegalStateException("failed to load function from: " + location, e);
+		}
+		return function;
+	}
+
+	@SuppressWarnings("rawtypes")
+	private Binder getBinder() {
+		return this.binderFactory.getBinder(null, MessageChannel.class);
+	}
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.spring.leaf.bootstrap;
+
+import java.util.Map;
+import java.util.function.Function;
+
+import org.springframework.amqp.core.AcknowledgeMode;
+import org.springframework.cloud.stream.binder.Binder;
+import org.springframework.cloud.stream.binder.Binding;
+import org.springframework.cloud.stream.binder.ExtendedConsumerProperties;
+import org.springframework.cloud.stream.binder.ExtendedProducerProperties;
+import org.springframework.cloud.stream.binder.rabbit.properties.RabbitConsumerProperties;
+import org.springframework.cloud.stream.binder.rabbit.properties.RabbitProducerProperties;
+import org.springframework.integration.channel.DirectChannel;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.MessagingException;
+import org.springframework.messaging.support.MessageBuilder;
+
+import io.spring.leaf.invoker.BatchingFunctionHandler;
+import io.spring.leaf.invoker.InvocationCounter;
+import io.spring.leaf.invoker.PayloadCodec;
+import io.spring.leaf.invoker.PayloadCodecs;
+import io.spring.leaf.invoker.ReplySender;
+import io.spring.leaf.invoker.StreamingFunctionHandler;
+import reactor.core.publisher.Flux;
+
+/**
+ * A function hosted by a {@link FunctionHost}: its input and output channels are bound
+ * directly through the binder, without an application context of their own.
+ *
+ * @author Mark Fisher
+ */
+class HostedFunction implements MessageHandler {
+
+	private final Function<Flux<Object>, Flux<Object>> function;
+
+	private final ReplySender replySender;
+
+	private final InvocationCounter invocationCounter;
+
+	private final PayloadCodecs codecs;
+
+	private PayloadCodec codec;
+
+	private MessageChannel output;
+
+	private StreamingFunctionHandler streamingHandler;
+
+	private BatchingFunctionHandler batchingHandler;
+
+	private Binding<MessageChannel> inputBinding;
+
+	private Binding<MessageChannel> outputBinding;
+
+	HostedFunction(Function<Flux<Object>, Flux<Object>> function, ReplySender replySender,
+			InvocationCounter invocationCounter, PayloadCodecs codecs) {
+		this.function = function;
+		this.replySender = replySender;
+		this.invocationCounter = invocationCounter;
+		this.codecs = codecs;
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	void start(Binder binder, Map<String, String> deploymentRequest, int prefetch) {
+		String output = deploymentRequest.get("output");
+		this.codec = this.codecs.forContentType(deploymentRequest.get("contentType"));
+		ConsumerSettings settings = new ConsumerSettings(deploymentRequest);
+		ExtendedConsumerProperties<RabbitConsumerProperties> consumerProperties =
+				new ExtendedConsumerProperties<RabbitConsumerProperties>(new RabbitConsumerProperties());
+		consumerProperties.setConcurrency(settings.getConcurrency());
+		if (settings.getPrefetch() != null) {
+			consumerProperties.getExtension().setPrefetch(settings.getPrefetch());
+		}
+		DirectChannel inputChannel = new DirectChannel();
+		if (output != null) {
+			DirectChannel outputChannel = new DirectChannel();
+			this.outputBinding = binder.bindProducer(output, outputChannel,
+					new ExtendedProducerProperties<RabbitProducerProperties>(new RabbitProducerProperties()));
+			this.output = outputChannel;
+		}
+		if (settings.isStreaming()) {
+			this.streamingHandler = new StreamingFunctionHandler(this.function, this.output, this.codec,
+					settings.getStreamingPrefetch(prefetch));
+			this.streamingHandler.setInvocationCounter(this.invocationCounter);
+			this.streamingHandler.start();
+			inputChannel.subscribe(this.streamingHandler);
+		}
+		else if (settings.isBatching()) {
+			String batchTimeout = settings.getBatchTimeout();
+			this.batchingHandler = new BatchingFunctionHandler(this.function, this.output, this.replySender,
+					this.codec, settings.getBatchSize(), (batchTimeout != null) ? Long.parseLong(batchTimeout) : 100);
+			this.batchingHandler.setInvocationCounter(this.invocationCounter);
+			this.batchingHandler.setRequeueRejected(consumerProperties.getExtension().isRequeueRejected());
+			inputChannel.subscribe(this.batchingHandler);
+			// the handler acknowledges each batch once it has been processed
+			consumerProperties.getExtension().setAcknowledgeMode(AcknowledgeMode.MANUAL);
+		}
+		else {
+			inputChannel.subscribe(this);
+		}
+		this.inputBinding = binder.bindConsumer(deploymentRequest.get("input"), "default", inputChannel,
+				consumerProperties);
+	}
+
+	InvocationCounter getInvocationCounter() {
+		return this.invocationCounter;
+	}
+
+	void stop() {
+		if (this.inputBinding != null) {
+			this.inputBinding.unbind();
+		}
+		if (this.streamingHandler != null) {
+			this.streamingHandler.stop();
+		}
+		if (this.batchingHandler != null) {
+			this.batchingHandler.stop();
+		}
+		if (this.outputBinding != null) {
+			this.outputBinding.unbind();
+		}
+	}
+
+	@Override
+	public void handleMessage(Message<?> message) throws MessagingException {
+		Object input = this.codec.decode(message.getPayload());
+		long start = this.invocationCounter.begin();
+		try {
+			Object result = this.codec.encode(this.function.apply(Flux.just(input)).blockFirst());
+			if (this.output != null) {
+				this.output.send(MessageBuilder.withPayload(result)
+						.setHeader(MessageHeaders.CONTENT_TYPE, this.codec.getContentType())
+						.copyHeadersIfAbsent(message.getHeaders()).build());
+			}
+			else {
+				this.replySender.sendReply(message, result, this.codec.getContentType());
+			}
+		}
+		catch (RuntimeException e) {
+			this.invocationCounter.error();
+			throw e;
+		}
+		finally {
+			this.invocationCounter.end(start);
+		}
+	}
+}
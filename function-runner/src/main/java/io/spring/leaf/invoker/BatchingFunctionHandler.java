@@ -0,0 +1,264 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.spring.leaf.invoker;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.amqp.support.AmqpHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.MessagingException;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import com.rabbitmq.client.Channel;
+
+import reactor.core.publisher.Flux;
+
+/**
+ * Collects up to {@code batchSize} messages, or whatever arrived within
+ * {@code batchTimeout} milliseconds of the first one, and applies the function once to
+ * all of them as a single {@link Flux}. A full batch is processed on the consumer thread
+ * that completed it, a partial batch is flushed by a timer. Each consumer thread fills a
+ * batch of its own.
+ * <p>
+ * Messages received with manual acknowledgement (carrying the AMQP channel and delivery
+ * tag headers) stay unacknowledged until their batch has been processed: they are then
+ * acknowledged, or rejected if the function fails, whichever thread flushed them. Other
+ * messages are acknowledged by their binder when {@link #handleMessage} returns, so only
+ * a failure of a full batch reaches it.
+ * <p>
+ * When the function returns one output per input, each output keeps the headers of its
+ * input, so replies stay correlated; otherwise the outputs are sent without them.
+ *
+ * @author Mark Fisher
+ */
+public class BatchingFunctionHandler implements MessageHandler {
+
+	private static final Log logger = LogFactory.getLog(BatchingFunctionHandler.class);
+
+	private final Function<Flux<Object>, Flux<Object>> function;
+
+	private final MessageChannel output;
+
+	private final ReplySender replySender;
+
+	private final PayloadCodec codec;
+
+	private final int batchSize;
+
+	private final long batchTimeout;
+
+	private final ScheduledExecutorService timer;
+
+	/**
+	 * The batch each consumer thread is filling, removed once it is flushed.
+	 */
+	private final Map<Thread, Batch> batches = new ConcurrentHashMap<>();
+
+	private boolean requeueRejected;
+
+	private InvocationCounter invocationCounter;
+
+	/**
+	 * @param output the channel for the outputs, or {@code null} to reply to each request
+	 */
+	public BatchingFunctionHandler(Function<Flux<Object>, Flux<Object>> function, MessageChannel output,
+			ReplySender replySender, PayloadCodec codec, int batchSize, long batchTimeout) {
+		this.function = function;
+		this.output = output;
+		this.replySender = replySender;
+		this.codec = codec;
+		this.batchSize = batchSize;
+		this.batchTimeout = batchTimeout;
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("leaf-batch-");
+		threadFactory.setDaemon(true);
+		this.timer = Executors.newSingleThreadScheduledExecutor(threadFactory);
+	}
+
+	/**
+	 * Whether a failed batch of manually acknowledged messages goes back to the queue
+	 * (default {@code false}: it is rejected to the dead letter queue, if any, like any
+	 * other failed message).
+	 */
+	public void setRequeueRejected(boolean requeueRejected) {
+		this.requeueRejected = requeueRejected;
+	}
+
+	public void setInvocationCounter(InvocationCounter invocationCounter) {
+		this.invocationCounter = invocationCounter;
+	}
+
+	public void stop() {
+		this.timer.shutdown();
+		for (Batch batch : this.batches.values()) {
+			flush(batch, false);
+		}
+	}
+
+	@Override
+	public void handleMessage(Message<?> message) throws MessagingException {
+		// each consumer thread acknowledges its own deliveries, so it gets its own batch
+		Thread consumer = Thread.currentThread();
+		while (true) {
+			Batch batch = this.batches.computeIfAbsent(consumer, t -> new Batch(t, this.batchSize));
+			boolean full;
+			synchronized (batch) {
+				if (batch.flushed) {
+					// the timer took this batch just now, start another one
+					continue;
+				}
+				batch.messages.add(message);
+				batch.starts.add((this.invocationCounter != null) ? this.invocationCounter.begin() : 0L);
+				full = batch.messages.size() >= this.batchSize;
+				if (batch.messages.size() == 1 && !full) {
+					this.timer.schedule(() -> flush(batch, false), this.batchTimeout, TimeUnit.MILLISECONDS);
+				}
+			}
+			if (full) {
+				flush(batch, true);
+			}
+			return;
+		}
+	}
+
+	/**
+	 * @param onConsumer whether the consumer thread is flushing, so that a failure can be
+	 * rethrown to a binder that acknowledges on return
+	 */
+	private void flush(Batch pending, boolean onConsumer) {
+		synchronized (pending) {
+			if (pending.flushed) {
+				return;
+			}
+			pending.flushed = true;
+			this.batches.remove(pending.consumer, pending);
+		}
+		List<Message<?>> batch = pending.messages;
+		try {
+			process(batch);
+			acknowledge(batch, true);
+		}
+		catch (RuntimeException e) {
+			if (this.invocationCounter != null) {
+				for (int i = 0; i < batch.size(); i++) {
+					this.invocationCounter.error();
+				}
+			}
+			if (!acknowledge(batch, false) && onConsumer) {
+				throw e;
+			}
+			logger.error("function failed on a batch of " + batch.size() + " messages", e);
+		}
+		finally {
+			if (this.invocationCounter != null) {
+				for (Long start : pending.starts) {
+					this.invocationCounter.end(start);
+				}
+			}
+		}
+	}
+
+	private void process(List<Message<?>> batch) {
+		List<Object> inputs = new ArrayList<>(batch.size());
+		for (Message<?> message : batch) {
+			inputs.add(this.codec.decode(message.getPayload()));
+		}
+		List<Object> results = this.function.apply(Flux.fromIterable(inputs)).collectList().block();
+		boolean correlated = results.size() == batch.size();
+		if (!correlated && this.output == null) {
+			logger.warn("function returned " + results.size() + " results for " + batch.size()
+					+ " requests, replies cannot be correlated");
+		}
+		for (int i = 0; i < results.size(); i++) {
+			Object result = this.codec.encode(results.get(i));
+			if (this.output == null) {
+				if (correlated) {
+					this.replySender.sendReply(batch.get(i), result, this.codec.getContentType());
+				}
+			}
+			else {
+				MessageBuilder<Object> builder = MessageBuilder.withPayload(result)
+						.setHeader(MessageHeaders.CONTENT_TYPE, this.codec.getContentType());
+				if (correlated) {
+					builder.copyHeadersIfAbsent(batch.get(i).getHeaders());
+				}
+				this.output.send(builder.build());
+			}
+		}
+	}
+
+	/**
+	 * Acknowledges or rejects the manually acknowledged messages of a batch. Each delivery
+	 * is settled on its own: an earlier batch of the same consumer may still be running.
+	 * @return whether the batch was acknowledged manually
+	 */
+	private boolean acknowledge(List<Message<?>> batch, boolean success) {
+		boolean manual = false;
+		for (Message<?> message : batch) {
+			Object channel = message.getHeaders().get(AmqpHeaders.CHANNEL);
+			Long tag = message.getHeaders().get(AmqpHeaders.DELIVERY_TAG, Long.class);
+			if (!(channel instanceof Channel) || tag == null) {
+				continue;
+			}
+			manual = true;
+			try {
+				if (success) {
+					((Channel) channel).basicAck(tag, false);
+				}
+				else {
+					((Channel) channel).basicNack(tag, false, this.requeueRejected);
+				}
+			}
+			catch (IOException e) {
+				// the channel is gone, so the broker redelivers the message
+				logger.warn("could not acknowledge message " + tag, e);
+			}
+		}
+		return manual;
+	}
+
+	private static class Batch {
+
+		private final Thread consumer;
+
+		private final List<Message<?>> messages;
+
+		private final List<Long> starts;
+
+		private boolean flushed;
+
+		Batch(Thread consumer, int size) {
+			this.consumer = consumer;
+			this.messages = new ArrayList<>(size);
+			this.starts = new ArrayList<>(size);
+		}
+	}
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.spring.leaf.invoker;
+
+import java.util.function.Function;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.cloud.stream.annotation.EnableBinding;
+import org.springframework.cloud.stream.binding.BinderAwareChannelResolver;
+import org.springframework.cloud.stream.messaging.Sink;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.util.StringUtils;
+
+import reactor.core.publisher.Flux;
+
+/**
+ * Invoker that applies the target function to batches of input messages. Outputs go to
+ * {@code spring.cloud.faas.function.output} if set, and back to the requester otherwise.
+ *
+ * @author Mark Fisher
+ * @see BatchingFunctionHandler
+ */
+@EnableBinding(Sink.class)
+@ConditionalOnProperty("spring.cloud.faas.function.batch-size")
+public class BatchingFunctionInvoker implements InitializingBean, DisposableBean {
+
+	@Autowired
+	private Function<Flux<Object>, Flux<Object>> targetFunction;
+
+	@Autowired
+	private Sink sink;
+
+	@Autowired
+	private BinderAwareChannelResolver resolver;
+
+	@Autowired
+	private InvocationCounter invocationCounter;
+
+	@Autowired
+	private PayloadCodecs codecs;
+
+	@Value("${spring.cloud.faas.function.output:}")
+	private String output;
+
+	@Value("${spring.cloud.faas.function.batch-size}")
+	private int batchSize;
+
+	@Value("${spring.cloud.faas.function.batch-timeout:100}")
+	private long batchTimeout;
+
+	@Value("${spring.cloud.stream.rabbit.bindings.input.consumer.requeueRejected:false}")
+	private boolean requeueRejected;
+
+	private BatchingFunctionHandler handler;
+
+	@Override
+	public void afterPropertiesSet() {
+		MessageChannel outputChannel = StringUtils.hasText(this.output)
+				? this.resolver.resolveDestination(this.output) : null;
+		this.handler = new BatchingFunctionHandler(this.targetFunction, outputChannel, new ReplySender(this.resolver),
+				this.codecs.getDefaultCodec(), this.batchSize, this.batchTimeout);
+		this.handler.setInvocationCounter(this.invocationCounter);
+		this.handler.setRequeueRejected(this.requeueRejected);
+		this.sink.input().subscribe(this.handler);
+	}
+
+	@Override
+	public void destroy() {
+		this.sink.input().unsubscribe(this.handler);
+		this.handler.stop();
+	}
+}
@@ -16,13 +16,20 @@
 
 package io.spring.leaf.invoker;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.cloud.function.compiler.proxy.ByteCodeLoadingFunction;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import reactor.core.publisher.Flux;
 
 /**
@@ -32,11 +39,46 @@ import reactor.core.publisher.Flux;
 @ConditionalOnProperty("spring.cloud.faas.function.resource")
 public class FunctionConfiguration {
 
+	/**
+	 * One location per function; several are composed into a {@link FunctionPipeline}.
+	 */
 	@Value("${spring.cloud.faas.function.resource}")
-	public Resource resource;
+	private String[] resources;
+
+	@Autowired
+	private ResourceLoader resourceLoader;
+
+	@Value("${spring.cloud.faas.binding.name:${spring.cloud.stream.bindings.input.destination:function}}")
+	private String bindingName;
+
+	@Value("${spring.cloud.faas.function.content-type:}")
+	private String contentType;
+
+	@Bean
+	public Function<Flux<Object>, Flux<Object>> targetFunction() throws Exception {
+		List<Function<Flux<Object>, Flux<Object>>> stages = new ArrayList<>();
+		for (String resource : this.resources) {
+			ByteCodeLoadingFunction<Flux<Object>, Flux<Object>> stage =
+					new ByteCodeLoadingFunction<>(this.resourceLoader.getResource(resource));
+			stage.afterPropertiesSet();
+			stages.add(stage);
+		}
+		return FunctionPipeline.compose(stages);
+	}
+
+	@Bean
+	public PayloadCodecs payloadCodecs(ObjectProvider<List<PayloadCodec>> codecs) {
+		return new PayloadCodecs(this.contentType, codecs.getIfAvailable());
+	}
+
+	@Bean
+	public InvocationCounter invocationCounter(ObjectProvider<MeterRegistry> meterRegistry) {
+		return new InvocationCounter(meterRegistry.getIfAvailable(), this.bindingName);
+	}
 
 	@Bean
-	public ByteCodeLoadingFunction<Flux<String>, Flux<String>> targetFunction() {
-		return new ByteCodeLoadingFunction<>(this.resource);
+	@ConditionalOnProperty("spring.cloud.faas.runner.instance")
+	public InvocationStatsReporter invocationStatsReporter() {
+		return new InvocationStatsReporter();
 	}
 }
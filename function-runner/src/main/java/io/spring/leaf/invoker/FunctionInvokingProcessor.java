@@ -24,6 +24,7 @@ import org.springframework.cloud.stream.annotation.EnableBinding;
 import org.springframework.cloud.stream.annotation.StreamListener;
 import org.springframework.cloud.stream.messaging.Processor;
 import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
 import org.springframework.messaging.handler.annotation.SendTo;
 import org.springframework.messaging.support.MessageBuilder;
 
@@ -37,12 +38,31 @@ import reactor.core.publisher.Flux;
 public class FunctionInvokingProcessor {
 
 	@Autowired
-	private Function<Flux<String>, Flux<String>> targetFunction;
+	private Function<Flux<Object>, Flux<Object>> targetFunction;
+
+	@Autowired
+	private InvocationCounter invocationCounter;
+
+	@Autowired
+	private PayloadCodecs codecs;
 
 	@StreamListener(Processor.INPUT)
 	@SendTo(Processor.OUTPUT)
-	public Message<String> handle(Message<String> message) {
-		String output = targetFunction.apply(Flux.just(message.getPayload())).blockFirst();
-		return MessageBuilder.withPayload(output).copyHeadersIfAbsent(message.getHeaders()).build();
+	public Message<?> handle(Message<?> message) {
+		long start = this.invocationCounter.begin();
+		try {
+			PayloadCodec codec = this.codecs.getDefaultCodec();
+			Object input = codec.decode(message.getPayload());
+			Object output = codec.encode(targetFunction.apply(Flux.just(input)).blockFirst());
+			return MessageBuilder.withPayload(output).setHeader(MessageHeaders.CONTENT_TYPE, codec.getContentType())
+					.copyHeadersIfAbsent(message.getHeaders()).build();
+		}
+		catch (RuntimeException e) {
+			this.invocationCounter.error();
+			throw e;
+		}
+		finally {
+			this.invocationCounter.end(start);
+		}
 	}
 }
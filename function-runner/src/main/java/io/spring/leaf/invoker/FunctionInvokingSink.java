@@ -18,14 +18,14 @@ package io.spring.leaf.invoker;
 
 import java.util.function.Function;
 
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.cloud.stream.annotation.EnableBinding;
 import org.springframework.cloud.stream.annotation.StreamListener;
+import org.springframework.cloud.stream.binding.BinderAwareChannelResolver;
 import org.springframework.cloud.stream.messaging.Sink;
 import org.springframework.messaging.Message;
-import org.springframework.util.StringUtils;
-import org.springframework.web.client.RestTemplate;
 
 import reactor.core.publisher.Flux;
 
@@ -34,22 +34,42 @@ import reactor.core.publisher.Flux;
  */
 @EnableBinding(Sink.class)
 @ConditionalOnProperty(value = "spring.cloud.stream.bindings.output.destination", matchIfMissing = true)
-public class FunctionInvokingSink {
+public class FunctionInvokingSink implements InitializingBean {
 
 	@Autowired
-	private Function<Flux<String>, Flux<String>> targetFunction;
+	private Function<Flux<Object>, Flux<Object>> targetFunction;
 
-	private final RestTemplate restTemplate = new RestTemplate();
+	@Autowired
+	private BinderAwareChannelResolver resolver;
+
+	@Autowired
+	private InvocationCounter invocationCounter;
+
+	@Autowired
+	private PayloadCodecs codecs;
+
+	private ReplySender replySender;
+
+	@Override
+	public void afterPropertiesSet() {
+		this.replySender = new ReplySender(this.resolver);
+	}
 
 	@StreamListener(Sink.INPUT)
-	public void handle(Message<String> message) {
-		String output = targetFunction.apply(Flux.just(message.getPayload())).blockFirst();
-		String replyTo = message.getHeaders().get("gatewayReplyTo", String.class);
-		if (!StringUtils.isEmpty(replyTo)) {
-			this.restTemplate.postForObject(replyTo, output, String.class);			
+	public void handle(Message<?> message) {
+		long start = this.invocationCounter.begin();
+		try {
+			PayloadCodec codec = this.codecs.getDefaultCodec();
+			Object input = codec.decode(message.getPayload());
+			Object output = codec.encode(targetFunction.apply(Flux.just(input)).blockFirst());
+			this.replySender.sendReply(message, output, codec.getContentType());
+		}
+		catch (RuntimeException e) {
+			this.invocationCounter.error();
+			throw e;
 		}
-		else {
-			System.out.println("no replyTo URL available for output: " + output);
+		finally {
+			this.invocationCounter.end(start);
 		}
 	}
 }
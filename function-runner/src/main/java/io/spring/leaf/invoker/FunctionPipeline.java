@@ -0,0 +1,58 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.spring.leaf.invoker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import reactor.core.publisher.Flux;
+
+/**
+ * Several functions fused into one: each stage is applied to the {@link Flux} returned by
+ * the previous one, so intermediate results are handed on in memory, without being
+ * encoded or sent through the broker.
+ *
+ * @author Mark Fisher
+ */
+public class FunctionPipeline implements Function<Flux<Object>, Flux<Object>> {
+
+	private final List<Function<Flux<Object>, Flux<Object>>> stages;
+
+	private FunctionPipeline(List<Function<Flux<Object>, Flux<Object>>> stages) {
+		this.stages = new ArrayList<>(stages);
+	}
+
+	/**
+	 * @return the only stage, or a pipeline applying the stages in order
+	 */
+	public static Function<Flux<Object>, Flux<Object>> compose(List<Function<Flux<Object>, Flux<Object>>> stages) {
+		if (stages.isEmpty()) {
+			throw new IllegalArgumentException("a pipeline needs at least one function");
+		}
+		return (stages.size() == 1) ? stages.get(0) : new FunctionPipeline(stages);
+	}
+
+	@Override
+	public Flux<Object> apply(Flux<Object> input) {
+		Flux<Object> flux = input;
+		for (Function<Flux<Object>, Flux<Object>> stage : this.stages) {
+			flux = stage.apply(flux);
+		}
+		return flux;
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.spring.leaf.invoker;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Counts the messages a function invoker has received and how many of them are
+ * still being processed. When given a {@link MeterRegistry} it also records invocation
+ * latency, errors and in-flight messages, tagged with the function's binding name.
+ *
+ * @author Mark Fisher
+ */
+public class InvocationCounter {
+
+	private final AtomicLong invocations = new AtomicLong();
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+
+	private final Timer timer;
+
+	private final Counter errors;
+
+	public InvocationCounter() {
+		this(null, null);
+	}
+
+	public InvocationCounter(MeterRegistry registry, String function) {
+		if (registry != null) {
+			this.timer = Timer.builder("leaf.function.invocations")
+					.tag("function", function)
+					.publishPercentileHistogram()
+					.register(registry);
+			this.errors = Counter.builder("leaf.function.errors").tag("function", function).register(registry);
+			Gauge.builder("leaf.function.in.flight", this.inFlight, AtomicInteger::get)
+					.tag("function", function)
+					.register(registry);
+		}
+		else {
+			this.timer = null;
+			this.errors = null;
+		}
+	}
+
+	/**
+	 * @return the start time to pass to {@link #end(long)}
+	 */
+	public long begin() {
+		this.invocations.incrementAndGet();
+		this.inFlight.incrementAndGet();
+		return System.nanoTime();
+	}
+
+	public void end(long start) {
+		this.inFlight.decrementAndGet();
+		if (this.timer != null) {
+			this.timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	/**
+	 * End an invocation without recording its latency, as when outputs are not
+	 * correlated with inputs.
+	 */
+	public void end() {
+		this.inFlight.decrementAndGet();
+	}
+
+	public void error() {
+		if (this.errors != null) {
+			this.errors.increment();
+		}
+	}
+
+	public long get() {
+		return this.invocations.get();
+	}
+
+	public int getInFlight() {
+		return this.inFlight.get();
+	}
+}
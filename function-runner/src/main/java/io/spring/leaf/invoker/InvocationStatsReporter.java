@@ -0,0 +1,105 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.spring.leaf.invoker;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.stream.binding.BinderAwareChannelResolver;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Periodically publishes this runner instance's invocation and in-flight counts to the
+ * {@code leaf-runner-stats} topic, where the controller uses them for autoscaling and
+ * idle detection.
+ *
+ * @author Mark Fisher
+ */
+public class InvocationStatsReporter implements InitializingBean, DisposableBean {
+
+	private static final Log logger = LogFactory.getLog(InvocationStatsReporter.class);
+
+	public static final String STATS_TOPIC = "leaf-runner-stats";
+
+	@Autowired
+	private BinderAwareChannelResolver resolver;
+
+	@Autowired
+	private InvocationCounter counter;
+
+	@Value("${spring.cloud.faas.runner.instance}")
+	private String instance;
+
+	@Value("${spring.cloud.faas.binding.name:}")
+	private String binding;
+
+	@Value("${spring.cloud.faas.stats.interval:5000}")
+	private long interval;
+
+	private ScheduledExecutorService executor;
+
+	@Override
+	public void afterPropertiesSet() {
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("leaf-stats-");
+		threadFactory.setDaemon(true);
+		this.executor = Executors.newSingleThreadScheduledExecutor(threadFactory);
+		this.executor.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					report();
+				}
+				catch (RuntimeException e) {
+					logger.warn("failed to report invocation stats", e);
+				}
+			}
+		}, this.interval, this.interval, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public void destroy() {
+		this.executor.shutdownNow();
+	}
+
+	private void report() {
+		this.resolver.resolveDestination(STATS_TOPIC).send(
+				statsMessage(this.instance, this.binding, this.counter.get(), this.counter.getInFlight()));
+	}
+
+	/**
+	 * @return the stats of one binding on a runner instance, as the controller reads them
+	 */
+	public static Message<String> statsMessage(String instance, String binding, long invocations, int inFlight) {
+		return MessageBuilder.withPayload(binding)
+				.setHeader("leafRunnerInstance", instance)
+				.setHeader("leafBinding", binding)
+				.setHeader("leafInvocations", invocations)
+				.setHeader("leafInFlight", inFlight)
+				.build();
+	}
+}
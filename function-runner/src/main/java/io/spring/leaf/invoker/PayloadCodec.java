@@ -0,0 +1,39 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.spring.leaf.invoker;
+
+/**
+ * Converts between message payloads and the values a function sees. A binding selects
+ * its codec by content type; the same codec decodes the function's inputs and encodes
+ * its outputs.
+ *
+ * @author Mark Fisher
+ */
+public interface PayloadCodec {
+
+	String getContentType();
+
+	/**
+	 * Convert a received payload, usually a {@code byte[]}, into a function input.
+	 */
+	Object decode(Object payload);
+
+	/**
+	 * Convert a function output into a payload that can be sent.
+	 */
+	Object encode(Object value);
+}
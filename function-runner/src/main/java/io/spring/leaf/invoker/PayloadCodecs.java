@@ -0,0 +1,202 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.spring.leaf.invoker;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.util.MimeType;
+import org.springframework.util.StringUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+/**
+ * The codecs available to a runner, looked up by content type. Text, raw bytes, JSON and
+ * Smile (a compact binary encoding of JSON) are always registered; additional
+ * {@link PayloadCodec} beans are added to them. A runner's own bindings use the default
+ * codec, selected by {@code spring.cloud.faas.function.content-type}.
+ *
+ * @author Mark Fisher
+ */
+public class PayloadCodecs {
+
+	public static final String TEXT = "text/plain";
+
+	public static final String BYTES = "application/octet-stream";
+
+	public static final String JSON = "application/json";
+
+	public static final String SMILE = "application/x-jackson-smile";
+
+	private final Map<String, PayloadCodec> codecs = new ConcurrentHashMap<>();
+
+	private final String defaultContentType;
+
+	/**
+	 * @param defaultContentType the content type of the default codec, or {@code null} for text
+	 * @param additional codecs to register besides the built-in ones, may be {@code null}
+	 */
+	public PayloadCodecs(String defaultContentType, Collection<PayloadCodec> additional) {
+		this.defaultContentType = defaultContentType;
+		ObjectMapper json = new ObjectMapper();
+		register(new TextCodec());
+		register(new BytesCodec());
+		register(new JacksonCodec(JSON, json, json));
+		register(new JacksonCodec(SMILE, new ObjectMapper(new SmileFactory()), json));
+		if (additional != null) {
+			for (PayloadCodec codec : additional) {
+				register(codec);
+			}
+		}
+	}
+
+	public void register(PayloadCodec codec) {
+		this.codecs.put(codec.getContentType(), codec);
+	}
+
+	public PayloadCodec getDefaultCodec() {
+		return forContentType(this.defaultContentType);
+	}
+
+	/**
+	 * @param contentType the binding's content type, or {@code null} for text
+	 */
+	public PayloadCodec forContentType(String contentType) {
+		if (!StringUtils.hasText(contentType)) {
+			return this.codecs.get(TEXT);
+		}
+		MimeType mimeType = MimeType.valueOf(contentType);
+		PayloadCodec codec = this.codecs.get(mimeType.getType() + "/" + mimeType.getSubtype());
+		if (codec == null) {
+			throw new IllegalArgumentException("no codec for content type: " + contentType);
+		}
+		return codec;
+	}
+
+	static byte[] toBytes(Object value) {
+		if (value instanceof byte[]) {
+			return (byte[]) value;
+		}
+		if (value instanceof ByteBuffer) {
+			ByteBuffer buffer = (ByteBuffer) value;
+			if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0
+					&& buffer.remaining() == buffer.array().length) {
+				return buffer.array();
+			}
+			byte[] bytes = new byte[buffer.remaining()];
+			buffer.duplicate().get(bytes);
+			return bytes;
+		}
+		return value.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * The historical behavior: functions see and return strings.
+	 */
+	static class TextCodec implements PayloadCodec {
+
+		@Override
+		public String getContentType() {
+			return TEXT;
+		}
+
+		@Override
+		public Object decode(Object payload) {
+			return (payload instanceof byte[])
+					? new String((byte[]) payload, StandardCharsets.UTF_8) : payload.toString();
+		}
+
+		@Override
+		public Object encode(Object value) {
+			return (value instanceof byte[]) ? value : value.toString();
+		}
+	}
+
+	/**
+	 * Passes payloads through untouched, so functions see the received {@code byte[]}
+	 * without charset decoding or copying, and may return a {@code byte[]} or
+	 * {@link ByteBuffer}.
+	 */
+	static class BytesCodec implements PayloadCodec {
+
+		@Override
+		public String getContentType() {
+			return BYTES;
+		}
+
+		@Override
+		public Object decode(Object payload) {
+			return toBytes(payload);
+		}
+
+		@Override
+		public Object encode(Object value) {
+			return toBytes(value);
+		}
+	}
+
+	/**
+	 * Functions see a Jackson {@code JsonNode} and may return any value Jackson can
+	 * serialize. A returned string is taken to be JSON text.
+	 */
+	static class JacksonCodec implements PayloadCodec {
+
+		private final String contentType;
+
+		private final ObjectMapper mapper;
+
+		private final ObjectMapper json;
+
+		JacksonCodec(String contentType, ObjectMapper mapper, ObjectMapper json) {
+			this.contentType = contentType;
+			this.mapper = mapper;
+			this.json = json;
+		}
+
+		@Override
+		public String getContentType() {
+			return this.contentType;
+		}
+
+		@Override
+		public Object decode(Object payload) {
+			try {
+				return (payload instanceof String)
+						? this.json.readTree((String) payload) : this.mapper.readTree(toBytes(payload));
+			}
+			catch (IOException e) {
+				throw new IllegalArgumentException("payload is not valid " + this.contentType, e);
+			}
+		}
+
+		@Override
+		public Object encode(Object value) {
+			try {
+				Object tree = (value instanceof String) ? this.json.readTree((String) value) : value;
+				return this.mapper.writeValueAsBytes(tree);
+			}
+			catch (IOException e) {
+				throw new IllegalArgumentException("output cannot be written as " + this.contentType, e);
+			}
+		}
+	}
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.spring.leaf.invoker;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.cloud.stream.binding.BinderAwareChannelResolver;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.StringUtils;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * Sends a function's output back to the gateway that issued the request, either to
+ * the reply topic named in the request headers or to its HTTP callback URL.
+ *
+ * @author Mark Fisher
+ */
+public class ReplySender {
+
+	private static final Log logger = LogFactory.getLog(ReplySender.class);
+
+	private final BinderAwareChannelResolver resolver;
+
+	private final RestTemplate restTemplate = new RestTemplate();
+
+	public ReplySender(BinderAwareChannelResolver resolver) {
+		this.resolver = resolver;
+	}
+
+	/**
+	 * @param contentType the content type of the output, so the gateway can return it as is
+	 */
+	public void sendReply(Message<?> request, Object output, String contentType) {
+		String replyTopic = request.getHeaders().get("gatewayReplyTopic", String.class);
+		if (!StringUtils.isEmpty(replyTopic)) {
+			Message<Object> reply = MessageBuilder.withPayload(output)
+					.setHeader("gatewayCorrelationId", request.getHeaders().get("gatewayCorrelationId"))
+					.setHeader(MessageHeaders.CONTENT_TYPE, contentType)
+					.build();
+			this.resolver.resolveDestination(replyTopic).send(reply);
+			return;
+		}
+		String replyTo = request.getHeaders().get("gatewayReplyTo", String.class);
+		if (!StringUtils.isEmpty(replyTo)) {
+			HttpHeaders headers = new HttpHeaders();
+			if (contentType != null) {
+				headers.setContentType(MediaType.parseMediaType(contentType));
+			}
+			this.restTemplate.postForObject(replyTo, new HttpEntity<>(output, headers), String.class);
+		}
+		else {
+			logger.warn("no reply topic or URL available for output: " + output);
+		}
+	}
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.spring.leaf.invoker;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.MessagingException;
+import org.springframework.messaging.support.MessageBuilder;
+
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+
+/**
+ * Applies a function once to a long-lived {@link Flux} fed by {@link #handleMessage}
+ * and sends every output to the given channel. At most {@code prefetch} messages are
+ * buffered ahead of the function; beyond that the calling consumer thread blocks.
+ *
+ * @author Mark Fisher
+ */
+public class StreamingFunctionHandler implements MessageHandler {
+
+	private static final Log logger = LogFactory.getLog(StreamingFunctionHandler.class);
+
+	private final Function<Flux<Object>, Flux<Object>> function;
+
+	private final MessageChannel output;
+
+	private final PayloadCodec codec;
+
+	private final int prefetch;
+
+	private final Semaphore permits;
+
+	private final AtomicReference<FluxSink<Object>> sink = new AtomicReference<>();
+
+	private Disposable subscription;
+
+	private InvocationCounter invocationCounter;
+
+	public StreamingFunctionHandler(Function<Flux<Object>, Flux<Object>> function, MessageChannel output,
+			PayloadCodec codec, int prefetch) {
+		this.function = function;
+		this.output = output;
+		this.codec = codec;
+		this.prefetch = prefetch;
+		this.permits = new Semaphore(prefetch);
+	}
+
+	public void setInvocationCounter(InvocationCounter invocationCounter) {
+		this.invocationCounter = invocationCounter;
+	}
+
+	public void start() {
+		Flux<Object> input = Flux.<Object>create(s -> {
+			resetPermits();
+			this.sink.set(s);
+		}).doOnNext(payload -> {
+			this.permits.release();
+			if (this.invocationCounter != null) {
+				this.invocationCounter.end();
+			}
+		});
+		this.subscription = this.function.apply(input)
+				.doOnError(e -> {
+					logger.error("function failed, resubscribing", e);
+					if (this.invocationCounter != null) {
+						this.invocationCounter.error();
+					}
+				})
+				.retry()
+				.subscribe(result -> this.output.send(MessageBuilder.withPayload(this.codec.encode(result))
+						.setHeader(MessageHeaders.CONTENT_TYPE, this.codec.getContentType())
+						.build()));
+	}
+
+	public void stop() {
+		FluxSink<Object> current = this.sink.get();
+		if (current != null) {
+			current.complete();
+		}
+		if (this.subscription != null) {
+			this.subscription.dispose();
+		}
+	}
+
+	@Override
+	public void handleMessage(Message<?> message) throws MessagingException {
+		try {
+			this.permits.acquire();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MessagingException(message, "interrupted while waiting for function demand", e);
+		}
+		if (this.invocationCounter != null) {
+			this.invocationCounter.begin();
+		}
+		this.sink.get().next(this.codec.decode(message.getPayload()));
+	}
+
+	private void resetPermits() {
+		// a resubscription drops whatever the previous sink still buffered
+		int missing = this.prefetch - this.permits.availablePermits();
+		if (missing > 0) {
+			this.permits.release(missing);
+		}
+	}
+}
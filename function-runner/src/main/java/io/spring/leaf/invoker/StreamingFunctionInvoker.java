@@ -0,0 +1,72 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.spring.leaf.invoker;
+
+import java.util.function.Function;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.cloud.stream.annotation.EnableBinding;
+import org.springframework.cloud.stream.messaging.Processor;
+
+import reactor.core.publisher.Flux;
+
+/**
+ * Processor invoker that subscribes the target function once to the whole input stream.
+ *
+ * @author Mark Fisher
+ * @see StreamingFunctionHandler
+ */
+@EnableBinding(Processor.class)
+@ConditionalOnProperty(value = "spring.cloud.faas.function.streaming", havingValue = "true")
+public class StreamingFunctionInvoker implements InitializingBean, DisposableBean {
+
+	@Autowired
+	private Function<Flux<Object>, Flux<Object>> targetFunction;
+
+	@Autowired
+	private Processor processor;
+
+	@Autowired
+	private InvocationCounter invocationCounter;
+
+	@Autowired
+	private PayloadCodecs codecs;
+
+	@Value("${spring.cloud.faas.function.prefetch:256}")
+	private int prefetch;
+
+	private StreamingFunctionHandler handler;
+
+	@Override
+	public void afterPropertiesSet() {
+		this.handler = new StreamingFunctionHandler(this.targetFunction, this.processor.output(),
+				this.codecs.getDefaultCodec(), this.prefetch);
+		this.handler.setInvocationCounter(this.invocationCounter);
+		this.handler.start();
+		this.processor.input().subscribe(this.handler);
+	}
+
+	@Override
+	public void destroy() {
+		this.processor.input().unsubscribe(this.handler);
+		this.handler.stop();
+	}
+}
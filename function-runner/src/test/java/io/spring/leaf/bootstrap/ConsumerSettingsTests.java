@@ -0,0 +1,100 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.spring.leaf.bootstrap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * @author Mark Fisher
+ */
+public class ConsumerSettingsTests {
+
+	@Test
+	public void defaults() {
+		ConsumerSettings settings = new ConsumerSettings(request());
+		assertFalse(settings.isStreaming());
+		assertFalse(settings.isBatching());
+		assertEquals(1, settings.getConcurrency());
+		assertNull(settings.getPrefetch());
+		assertEquals(256, settings.getStreamingPrefetch(256));
+	}
+
+	@Test
+	public void streamingNeedsAnOutput() {
+		assertFalse(new ConsumerSettings(request("streaming", "true")).isStreaming());
+		assertTrue(new ConsumerSettings(request("streaming", "true", "output", "out")).isStreaming());
+	}
+
+	@Test
+	public void streamingTakesPrecedenceOverBatching() {
+		ConsumerSettings settings = new ConsumerSettings(request("streaming", "true", "output", "out",
+				"batchSize", "10"));
+		assertFalse(settings.isBatching());
+	}
+
+	@Test
+	public void prefetchCoversAtLeastOneBatch() {
+		assertEquals(Integer.valueOf(10), new ConsumerSettings(request("batchSize", "10")).getPrefetch());
+		assertEquals(Integer.valueOf(10),
+				new ConsumerSettings(request("batchSize", "10", "prefetch", "4")).getPrefetch());
+		assertEquals(Integer.valueOf(50),
+				new ConsumerSettings(request("batchSize", "10", "prefetch", "50")).getPrefetch());
+	}
+
+	@Test
+	public void maxInFlightLowersConcurrency() {
+		assertEquals(3, new ConsumerSettings(request("concurrency", "8", "maxInFlight", "3")).getConcurrency());
+		assertEquals(8, new ConsumerSettings(request("concurrency", "8", "maxInFlight", "20")).getConcurrency());
+		// each batching consumer works on a whole batch
+		assertEquals(2, new ConsumerSettings(request("concurrency", "8", "maxInFlight", "20",
+				"batchSize", "10")).getConcurrency());
+		assertEquals(1, new ConsumerSettings(request("concurrency", "8", "maxInFlight", "5",
+				"batchSize", "10")).getConcurrency());
+	}
+
+	@Test
+	public void maxInFlightBoundsTheStreamingBuffer() {
+		ConsumerSettings settings = new ConsumerSettings(request("streaming", "true", "output", "out",
+				"concurrency", "4", "maxInFlight", "16"));
+		assertEquals(4, settings.getConcurrency());
+		assertEquals(16, settings.getStreamingPrefetch(256));
+	}
+
+	@Test
+	public void prefetchIsOnlySupportedByRabbit() {
+		assertTrue(ConsumerSettings.isPrefetchSupported(""));
+		assertTrue(ConsumerSettings.isPrefetchSupported("rabbit"));
+		assertFalse(ConsumerSettings.isPrefetchSupported("local"));
+	}
+
+	private static Map<String, String> request(String... keyValues) {
+		Map<String, String> request = new HashMap<>();
+		request.put("input", "words");
+		for (int i = 0; i < keyValues.length; i += 2) {
+			request.put(keyValues[i], keyValues[i + 1]);
+		}
+		return request;
+	}
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.spring.leaf.invoker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.junit.After;
+import org.junit.Test;
+
+import org.springframework.amqp.support.AmqpHeaders;
+import org.springframework.integration.channel.QueueChannel;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+import com.rabbitmq.client.Channel;
+
+import reactor.core.publisher.Flux;
+
+/**
+ * @author Mark Fisher
+ */
+public class BatchingFunctionHandlerTests {
+
+	private final QueueChannel output = new QueueChannel();
+
+	private final AtomicInteger invocations = new AtomicInteger();
+
+	private final Channel amqpChannel = mock(Channel.class);
+
+	private BatchingFunctionHandler handler;
+
+	@After
+	public void tearDown() {
+		if (this.handler != null) {
+			this.handler.stop();
+		}
+	}
+
+	@Test
+	public void fullBatchIsProcessedOnTheConsumerThread() {
+		this.handler = handler(f -> f.map(s -> s.toString().toUpperCase()), 3, 60000);
+		this.handler.handleMessage(message("a"));
+		this.handler.handleMessage(message("b"));
+		assertNull(this.output.receive(0));
+		this.handler.handleMessage(message("c"));
+		assertEquals(1, this.invocations.get());
+		for (String expected : new String[] { "A", "B", "C" }) {
+			Message<?> result = this.output.receive(0);
+			assertEquals(expected, result.getPayload());
+			// outputs are correlated with their inputs
+			assertEquals(expected.toLowerCase(), result.getHeaders().get("input"));
+		}
+	}
+
+	@Test
+	public void partialBatchIsFlushedAfterTheTimeout() {
+		this.handler = handler(f -> f.map(s -> s.toString().toUpperCase()), 10, 50);
+		this.handler.handleMessage(message("a"));
+		this.handler.handleMessage(message("b"));
+		assertEquals("A", receive().getPayload());
+		assertEquals("B", receive().getPayload());
+		assertEquals(1, this.invocations.get());
+		// the next message starts another batch
+		this.handler.handleMessage(message("c"));
+		assertEquals("C", receive().getPayload());
+		assertEquals(2, this.invocations.get());
+	}
+
+	@Test
+	public void partialBatchIsAcknowledgedOnlyAfterProcessing() throws Exception {
+		this.handler = handler(f -> f.map(s -> s.toString().toUpperCase()), 10, 500);
+		this.handler.handleMessage(amqpMessage("a", 1));
+		this.handler.handleMessage(amqpMessage("b", 2));
+		verify(this.amqpChannel, never()).basicAck(anyLong(), anyBoolean());
+		verify(this.amqpChannel, timeout(5000)).basicAck(1L, false);
+		verify(this.amqpChannel, timeout(5000)).basicAck(2L, false);
+		assertNotNull(this.output.receive(0));
+	}
+
+	@Test
+	public void failedBatchIsRejectedInsteadOfAcknowledged() throws Exception {
+		this.handler = handler(f -> f.map(s -> {
+			throw new IllegalStateException("boom");
+		}), 10, 50);
+		this.handler.setRequeueRejected(true);
+		this.handler.handleMessage(amqpMessage("a", 1));
+		this.handler.handleMessage(amqpMessage("b", 2));
+		verify(this.amqpChannel, timeout(5000)).basicNack(1L, false, true);
+		verify(this.amqpChannel, timeout(5000)).basicNack(2L, false, true);
+		verify(this.amqpChannel, never()).basicAck(anyLong(), anyBoolean());
+	}
+
+	@Test
+	public void failedFullBatchReachesTheConsumerWithoutManualAcknowledgement() {
+		this.handler = handler(f -> f.map(s -> {
+			throw new IllegalStateException("boom");
+		}), 2, 60000);
+		this.handler.handleMessage(message("a"));
+		try {
+			this.handler.handleMessage(message("b"));
+			fail("expected the failure to reach the consumer");
+		}
+		catch (IllegalStateException e) {
+			assertEquals("boom", e.getMessage());
+		}
+	}
+
+	private BatchingFunctionHandler handler(Function<Flux<Object>, Flux<Object>> function, int batchSize,
+			long batchTimeout) {
+		Function<Flux<Object>, Flux<Object>> counting = input -> {
+			this.invocations.incrementAndGet();
+			return function.apply(input);
+		};
+		return new BatchingFunctionHandler(counting, this.output, null,
+				new PayloadCodecs(null, null).getDefaultCodec(), batchSize, batchTimeout);
+	}
+
+	private Message<?> receive() {
+		Message<?> message = this.output.receive(5000);
+		assertNotNull("no output within 5 seconds", message);
+		return message;
+	}
+
+	private static Message<?> message(String payload) {
+		return MessageBuilder.withPayload(payload).setHeader("input", payload).build();
+	}
+
+	private Message<?> amqpMessage(String payload, long deliveryTag) {
+		return MessageBuilder.withPayload(payload)
+				.setHeader(AmqpHeaders.CHANNEL, this.amqpChannel)
+				.setHeader(AmqpHeaders.DELIVERY_TAG, deliveryTag)
+				.build();
+	}
+}
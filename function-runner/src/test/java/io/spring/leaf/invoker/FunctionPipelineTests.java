@@ -0,0 +1,64 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.spring.leaf.invoker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+import org.junit.Test;
+
+import reactor.core.publisher.Flux;
+
+/**
+ * @author Mark Fisher
+ */
+public class FunctionPipelineTests {
+
+	@Test
+	public void stagesAreAppliedInOrder() {
+		Function<Flux<Object>, Flux<Object>> uppercase = f -> f.map(s -> s.toString().toUpperCase());
+		Function<Flux<Object>, Flux<Object>> exclaim = f -> f.map(s -> s + "!");
+		Function<Flux<Object>, Flux<Object>> pipeline = FunctionPipeline.compose(Arrays.asList(uppercase, exclaim));
+		List<Object> results = pipeline.apply(Flux.just("a", "b")).collectList().block();
+		assertEquals(Arrays.asList("A!", "B!"), results);
+	}
+
+	@Test
+	public void stageMayChangeTheNumberOfElements() {
+		Function<Flux<Object>, Flux<Object>> pairs = f -> f.buffer(2).map(Object::toString);
+		Function<Flux<Object>, Flux<Object>> length = f -> f.map(s -> s.toString().length());
+		List<Object> results = FunctionPipeline.compose(Arrays.asList(pairs, length))
+				.apply(Flux.just("a", "b", "c")).collectList().block();
+		assertEquals(Arrays.asList(6, 3), results);
+	}
+
+	@Test
+	public void singleStageIsReturnedAsIs() {
+		Function<Flux<Object>, Flux<Object>> stage = f -> f;
+		assertSame(stage, FunctionPipeline.compose(Collections.singletonList(stage)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void emptyPipelineIsRejected() {
+		FunctionPipeline.compose(Collections.emptyList());
+	}
+}
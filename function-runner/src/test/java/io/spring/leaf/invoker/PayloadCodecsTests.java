@@ -0,0 +1,102 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.spring.leaf.invoker;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * @author Mark Fisher
+ */
+public class PayloadCodecsTests {
+
+	private final PayloadCodecs codecs = new PayloadCodecs(PayloadCodecs.JSON, null);
+
+	@Test
+	public void codecIsSelectedByContentTypeIgnoringParameters() {
+		assertEquals(PayloadCodecs.JSON, this.codecs.getDefaultCodec().getContentType());
+		assertEquals(PayloadCodecs.TEXT, this.codecs.forContentType(null).getContentType());
+		assertEquals(PayloadCodecs.TEXT, this.codecs.forContentType("text/plain;charset=UTF-8").getContentType());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void unknownContentTypeIsRejected() {
+		this.codecs.forContentType("application/x-unknown");
+	}
+
+	@Test
+	public void additionalCodecIsRegistered() {
+		PayloadCodec custom = new PayloadCodecs.BytesCodec() {
+
+			@Override
+			public String getContentType() {
+				return "application/x-custom";
+			}
+		};
+		PayloadCodecs codecs = new PayloadCodecs(null, Collections.singleton(custom));
+		assertSame(custom, codecs.forContentType("application/x-custom"));
+	}
+
+	@Test
+	public void textDecodesBytesAsUtf8() {
+		PayloadCodec text = this.codecs.forContentType(PayloadCodecs.TEXT);
+		assertEquals("gr\u00fc\u00dfe", text.decode("gr\u00fc\u00dfe".getBytes(StandardCharsets.UTF_8)));
+		assertEquals("42", text.encode(42));
+	}
+
+	@Test
+	public void bytesArePassedThroughWithoutCopying() {
+		PayloadCodec bytes = this.codecs.forContentType(PayloadCodecs.BYTES);
+		byte[] payload = { 1, 2, 3 };
+		assertSame(payload, bytes.decode(payload));
+		assertSame(payload, bytes.encode(ByteBuffer.wrap(payload)));
+		ByteBuffer slice = ByteBuffer.wrap(payload, 1, 2);
+		assertArrayEquals(new byte[] { 2, 3 }, (byte[]) bytes.encode(slice));
+	}
+
+	@Test
+	public void jsonIsDecodedToATree() {
+		PayloadCodec json = this.codecs.forContentType(PayloadCodecs.JSON);
+		JsonNode node = (JsonNode) json.decode("{\"a\":1}".getBytes(StandardCharsets.UTF_8));
+		assertEquals(1, node.get("a").asInt());
+		assertEquals("{\"a\":1}", new String((byte[]) json.encode(node), StandardCharsets.UTF_8));
+		// a string result is taken to be JSON text
+		assertEquals("[1,2]", new String((byte[]) json.encode("[1, 2]"), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void smileRoundTripsJson() {
+		PayloadCodec smile = this.codecs.forContentType(PayloadCodecs.SMILE);
+		byte[] encoded = (byte[]) smile.encode("{\"a\":[1,2]}");
+		JsonNode node = (JsonNode) smile.decode(encoded);
+		assertEquals(2, node.get("a").get(1).asInt());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void invalidJsonIsRejected() {
+		this.codecs.forContentType(PayloadCodecs.JSON).decode("{");
+	}
+}
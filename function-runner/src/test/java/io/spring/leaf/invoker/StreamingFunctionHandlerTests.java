@@ -0,0 +1,131 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.spring.leaf.invoker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import org.springframework.integration.channel.QueueChannel;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.support.MessageBuilder;
+
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * @author Mark Fisher
+ */
+public class StreamingFunctionHandlerTests {
+
+	private final QueueChannel output = new QueueChannel();
+
+	private final PayloadCodec codec = new PayloadCodecs(null, null).getDefaultCodec();
+
+	private StreamingFunctionHandler handler;
+
+	@After
+	public void tearDown() {
+		if (this.handler != null) {
+			this.handler.stop();
+		}
+	}
+
+	@Test
+	public void functionIsAppliedOnceToTheWholeStream() {
+		AtomicInteger subscriptions = new AtomicInteger();
+		this.handler = new StreamingFunctionHandler(f -> {
+			subscriptions.incrementAndGet();
+			return f.map(s -> s.toString().toUpperCase());
+		}, this.output, this.codec, 16);
+		this.handler.start();
+		this.handler.handleMessage(MessageBuilder.withPayload("a").build());
+		this.handler.handleMessage(MessageBuilder.withPayload("b".getBytes()).build());
+		assertEquals("A", receive().getPayload());
+		Message<?> second = receive();
+		assertEquals("B", second.getPayload());
+		assertEquals("text/plain", second.getHeaders().get(MessageHeaders.CONTENT_TYPE));
+		assertEquals(1, subscriptions.get());
+	}
+
+	@Test
+	public void statefulFunctionSeesEveryMessage() {
+		this.handler = new StreamingFunctionHandler(f -> f.buffer(3).map(Object::toString), this.output,
+				this.codec, 16);
+		this.handler.start();
+		for (String payload : new String[] { "a", "b", "c" }) {
+			this.handler.handleMessage(MessageBuilder.withPayload(payload).build());
+		}
+		assertEquals("[a, b, c]", receive().getPayload());
+	}
+
+	@Test
+	public void failedFunctionIsResubscribed() {
+		this.handler = new StreamingFunctionHandler(f -> f.map(s -> {
+			if ("boom".equals(s)) {
+				throw new IllegalStateException("boom");
+			}
+			return s.toString().toUpperCase();
+		}), this.output, this.codec, 16);
+		this.handler.start();
+		this.handler.handleMessage(MessageBuilder.withPayload("boom").build());
+		this.handler.handleMessage(MessageBuilder.withPayload("ok").build());
+		assertEquals("OK", receive().getPayload());
+	}
+
+	@Test
+	public void consumerBlocksBeyondThePrefetch() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		this.handler = new StreamingFunctionHandler(f -> f.publishOn(Schedulers.single(), 1)
+				.doOnNext(s -> await(release)), this.output, this.codec, 2);
+		this.handler.start();
+		CountDownLatch sent = new CountDownLatch(1);
+		Thread consumer = new Thread(() -> {
+			for (int i = 0; i < 10; i++) {
+				this.handler.handleMessage(MessageBuilder.withPayload("m" + i).build());
+			}
+			sent.countDown();
+		});
+		consumer.start();
+		assertFalse(sent.await(200, TimeUnit.MILLISECONDS));
+		release.countDown();
+		assertTrue(sent.await(5, TimeUnit.SECONDS));
+	}
+
+	private Message<?> receive() {
+		Message<?> message = this.output.receive(5000);
+		assertNotNull("no output within 5 seconds", message);
+		return message;
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await(10, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}